@@ -22,6 +22,8 @@ import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.preference.PreferenceManager;
 import android.util.Log;
+import net.frakbot.FWeather.updater.weather.HttpTransport;
+import net.frakbot.FWeather.updater.weather.YahooWeatherApiClient;
 import net.frakbot.FWeather.util.TrackerHelper;
 import net.frakbot.util.log.LogLevel;
 import net.frakbot.global.Const;
@@ -69,6 +71,11 @@ public class FWeatherApplication extends Application {
 
         initUserAgent();
 
+        // Set up the keep-alive HTTP connection pool before any connection is opened
+        HttpTransport.configureConnectionPool();
+        // Keep the validators of the weather feeds across process restarts
+        YahooWeatherApiClient.init(this);
+
         // Set the default preference values stored in the xml files
         PreferenceManager.setDefaultValues(this, R.xml.pref_advanced, false);
         PreferenceManager.setDefaultValues(this, R.xml.pref_customization, false);
@@ -38,7 +38,14 @@ public class FWeatherWidgetProvider extends AppWidgetProvider {
         final String tag = info != null ? info.name : TAG;
         FLog.i(context, tag, "Update started");
 
-        startUpdate(context, appWidgetIds);
+        // The widget host may have just (re)created the widgets, so push everything
+        startUpdate(context, appWidgetIds, true);
+    }
+
+    @Override
+    public void onDeleted(Context context, int[] appWidgetIds) {
+        super.onDeleted(context, appWidgetIds);
+        UpdaterService.forgetWidgetStates(appWidgetIds);
     }
 
     @Override
@@ -52,18 +59,21 @@ public class FWeatherWidgetProvider extends AppWidgetProvider {
         final String tag = info != null ? info.name : TAG;
         FLog.i(context, tag, "Update action received!");
 
-        startUpdate(context, WidgetHelper.getWidgetIds(context));
+        startUpdate(context, WidgetHelper.getWidgetIds(context), false);
     }
 
     /**
      * Immediately requests an update by starting the service.
      * @param context       The Context
      * @param appWidgetIds  The App Widget IDs to update
+     * @param fullUpdate    True to push the whole widgets, false to only push
+     *                      what changed since the last update
      */
-    private void startUpdate(Context context, int[] appWidgetIds) {
+    private void startUpdate(Context context, int[] appWidgetIds, boolean fullUpdate) {
         final Intent updaterIntent =
                 new Intent(context, UpdaterService.class)
-                        .putExtra(UpdaterService.EXTRA_WIDGET_IDS, appWidgetIds);
+                        .putExtra(UpdaterService.EXTRA_WIDGET_IDS, appWidgetIds)
+                        .putExtra(UpdaterService.EXTRA_FULL_UPDATE, fullUpdate);
 
         context.startService(updaterIntent);
     }
@@ -80,7 +90,8 @@ public class FWeatherWidgetProvider extends AppWidgetProvider {
             FLog.i(context, tag, "Widget options changed, updating it");
             final Intent updaterIntent =
                     new Intent(context, UpdaterService.class)
-                            .putExtra(UpdaterService.EXTRA_WIDGET_IDS, new int[] {appWidgetId});
+                            .putExtra(UpdaterService.EXTRA_WIDGET_IDS, new int[] {appWidgetId})
+                            .putExtra(UpdaterService.EXTRA_FULL_UPDATE, true);
 
             context.startService(updaterIntent);
         }
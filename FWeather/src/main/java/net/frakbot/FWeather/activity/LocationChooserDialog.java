@@ -37,14 +37,13 @@ import android.widget.ListView;
 import android.widget.TextView;
 import net.frakbot.FWeather.R;
 import net.frakbot.FWeather.updater.weather.YahooWeatherApiClient;
+import net.frakbot.FWeather.updater.weather.model.LocationSearchResult;
 import net.frakbot.FWeather.util.WeatherLocationPreference;
 import net.frakbot.util.log.FLog;
 
 import java.util.ArrayList;
 import java.util.List;
 
-import static net.frakbot.FWeather.updater.weather.YahooWeatherApiClient.LocationSearchResult;
-
 /**
  * Dialog that pops up when touching the Location preference.
  */
@@ -49,6 +49,7 @@ import android.widget.Button;
 import android.widget.Toast;
 import net.frakbot.FWeather.R;
 import net.frakbot.FWeather.fragments.*;
+import net.frakbot.FWeather.updater.weather.CircuitBreaker;
 import net.frakbot.FWeather.util.TrackerHelper;
 import net.frakbot.FWeather.util.WeatherLocationPreference;
 import net.frakbot.FWeather.util.WidgetHelper;
@@ -249,6 +250,7 @@ public class SettingsActivity extends PreferenceActivity implements
         screen.addPreference(fakeHeader);
         addPreferencesFromResource(R.xml.pref_advanced);
         setupAnalyticsOnChangeListener((SwitchPreference) findPreference(getString(R.string.pref_key_analytics)));
+        setupEndpointsStatusPreference(findPreference(getString(R.string.pref_key_debug_endpoints)));
 
         // Add 'info' preferences, and a corresponding header.
         fakeHeader = new PreferenceCategory(this);
@@ -425,6 +427,23 @@ public class SettingsActivity extends PreferenceActivity implements
         });
     }
 
+    /**
+     * Sets up the weather services status preference, which shows the state of
+     * the circuit breakers of the remote endpoints. Tap it to refresh it.
+     *
+     * @param preference The weather services status preference
+     */
+    public void setupEndpointsStatusPreference(Preference preference) {
+        preference.setSummary(CircuitBreaker.getAllStatuses());
+        preference.setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
+            @Override
+            public boolean onPreferenceClick(Preference preference) {
+                preference.setSummary(CircuitBreaker.getAllStatuses());
+                return true;
+            }
+        });
+    }
+
     /**
      * Sets up the Analytics preference listener.
      *
@@ -41,6 +41,9 @@ public class AdvancedPreferencesFragment extends BackupPreferenceFragment {
             ((SettingsActivity)getActivity()).setupAnalyticsOnChangeListener(
                 (SwitchPreference) findPreference(getString(R.string.pref_key_analytics)));
 
+            ((SettingsActivity)getActivity()).setupEndpointsStatusPreference(
+                findPreference(getString(R.string.pref_key_debug_endpoints)));
+
             ((SettingsActivity)getActivity()).bindPreferenceSummaryToValue(
                 findPreference(getString(R.string.pref_key_weather_location)));
         }
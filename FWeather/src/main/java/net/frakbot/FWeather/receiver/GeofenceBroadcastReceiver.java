@@ -0,0 +1,65 @@
+/*
+ * Copyright 2014 Sebastiano Poggi and Francesco Pontillo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.frakbot.FWeather.receiver;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.location.LocationManager;
+import com.google.android.gms.location.Geofence;
+import com.google.android.gms.location.LocationClient;
+import net.frakbot.FWeather.util.LocationHelper;
+import net.frakbot.util.log.FLog;
+
+/**
+ * BroadcastReceiver listening for the geofence around the current weather location:
+ *   - it receives the transitions of both the Play Services' geofence and the
+ *     LocationManager's proximity alert
+ *   - when the device leaves the area, asks the LocationHelper for a fresh location,
+ *     which in turn updates the widgets
+ */
+public class GeofenceBroadcastReceiver extends BroadcastReceiver {
+
+    private static final String TAG = GeofenceBroadcastReceiver.class.getSimpleName();
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (!LocationHelper.ACTION_GEOFENCE_TRANSITION.equals(intent.getAction())) {
+            FLog.w(TAG, "onReceived() called with " + intent);
+            return;
+        }
+
+        final boolean exited;
+        if (intent.hasExtra(LocationManager.KEY_PROXIMITY_ENTERING)) {
+            // Proximity alert, from the LocationManager
+            exited = !intent.getBooleanExtra(LocationManager.KEY_PROXIMITY_ENTERING, true);
+        }
+        else if (LocationClient.hasError(intent)) {
+            FLog.w(TAG, "Geofence error, code: " + LocationClient.getErrorCode(intent));
+            return;
+        }
+        else {
+            exited = LocationClient.getGeofenceTransition(intent) == Geofence.GEOFENCE_TRANSITION_EXIT;
+        }
+
+        FLog.d(TAG, "Geofence transition received. Exited: " + exited);
+        if (exited) {
+            LocationHelper.init(context.getApplicationContext());
+            LocationHelper.onGeofenceExited();
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2014 Sebastiano Poggi and Francesco Pontillo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.frakbot.FWeather.updater;
+
+import android.os.SystemClock;
+import net.frakbot.global.Const;
+
+import java.util.Arrays;
+
+/**
+ * Merges the update requests that arrive within a short window into a single
+ * update pass, over the union of the requested widgets. The flags of the merged
+ * requests are OR-ed, so that a burst of requests (alarm, connectivity change,
+ * options change, settings closed...) results in one weather fetch.
+ * <p/>
+ * Requests are {@link #offer offered} as soon as they're received, and the update
+ * pass {@link #poll polls} all of the pending ones at once. User-forced requests are
+ * ready right away; the others when the window since the first of them ends.
+ * <p/>
+ * Requests for a full update that aren't forced (the widgets have been resized or
+ * recreated) only need the widgets to be rendered again, and don't need a fetch.
+ * A merged request is render-only if all of the requests it merges are.
+ * This class is thread safe.
+ */
+class UpdateCoalescer {
+
+    private static final long WINDOW_MILLIS = Const.Thresholds.UPDATE_COALESCING_WINDOW * 1000L;
+
+    private int[] mWidgetIds;
+    private boolean mForced;
+    private boolean mFullUpdate;
+    private boolean mNeedsFetch;
+    private long mFirstOfferTime;
+
+    /**
+     * Adds an update request to the pending one.
+     *
+     * @param widgetIds  The IDs of the widgets to update
+     * @param forced     True if the update has been forced by the user
+     * @param fullUpdate True if the whole widgets must be pushed
+     * @return Returns how long until the pending request is ready, in milliseconds
+     */
+    public synchronized long offer(int[] widgetIds, boolean forced, boolean fullUpdate) {
+        if (mWidgetIds == null) {
+            mWidgetIds = new int[0];
+            mFirstOfferTime = SystemClock.elapsedRealtime();
+        }
+
+        mWidgetIds = union(mWidgetIds, widgetIds);
+        mForced |= forced;
+        mFullUpdate |= fullUpdate;
+        mNeedsFetch |= forced || !fullUpdate;
+        return getRemainingMillis();
+    }
+
+    /**
+     * Takes the pending update request, if it's ready.
+     *
+     * @return Returns the merged request, or null if there is none or it's not ready yet
+     */
+    public synchronized Request poll() {
+        if (mWidgetIds == null || getRemainingMillis() > 0) {
+            return null;
+        }
+
+        final Request request = new Request(mWidgetIds, mForced, mFullUpdate, !mNeedsFetch);
+        mWidgetIds = null;
+        mForced = false;
+        mFullUpdate = false;
+        mNeedsFetch = false;
+        return request;
+    }
+
+    /**
+     * Checks if there is a pending update request.
+     *
+     * @return Returns true if a request has been offered and not taken yet
+     */
+    public synchronized boolean hasPending() {
+        return mWidgetIds != null;
+    }
+
+    private long getRemainingMillis() {
+        if (mForced) {
+            return 0;
+        }
+        return Math.max(0, mFirstOfferTime + WINDOW_MILLIS - SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * Merges two sets of widget IDs.
+     *
+     * @param a The first set (sorted, with no duplicates)
+     * @param b The second set
+     * @return Returns the sorted union of the two sets
+     */
+    private static int[] union(int[] a, int[] b) {
+        if (b == null || b.length == 0) {
+            return a;
+        }
+
+        final int[] merged = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, merged, a.length, b.length);
+        Arrays.sort(merged);
+
+        int count = 0;
+        for (int i = 0; i < merged.length; i++) {
+            if (i == 0 || merged[i] != merged[i - 1]) {
+                merged[count++] = merged[i];
+            }
+        }
+        return Arrays.copyOf(merged, count);
+    }
+
+    /**
+     * A (merged) update request.
+     */
+    static class Request {
+
+        final int[] widgetIds;
+        final boolean forced;
+        final boolean fullUpdate;
+        final boolean renderOnly;
+
+        private Request(int[] widgetIds, boolean forced, boolean fullUpdate, boolean renderOnly) {
+            this.widgetIds = widgetIds;
+            this.forced = forced;
+            this.fullUpdate = fullUpdate;
+            this.renderOnly = renderOnly;
+        }
+
+        /**
+         * Gets the same request, with a fetch. Used for render-only requests when
+         * there is nothing cached to render.
+         *
+         * @return Returns a request that isn't render-only
+         */
+        Request withFetch() {
+            return new Request(widgetIds, forced, fullUpdate, false);
+        }
+
+        /**
+         * Merges two requests.
+         *
+         * @param a The first request (can be null)
+         * @param b The second request
+         * @return Returns the merged request
+         */
+        static Request merge(Request a, Request b) {
+            if (a == null) {
+                return b;
+            }
+            return new Request(union(a.widgetIds, b.widgetIds), a.forced || b.forced,
+                               a.fullUpdate || b.fullUpdate, a.renderOnly && b.renderOnly);
+        }
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2014 Sebastiano Poggi and Francesco Pontillo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.frakbot.FWeather.updater;
+
+import net.frakbot.util.log.FLog;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The stages the widget updates go through, each one running on its own thread:
+ * <ul>
+ * <li>fetch: network and disk I/O, on a single thread; the service runs one fetch at
+ * a time, and folds the requests received meanwhile into it;</li>
+ * <li>render: builds the widgets views, on a single thread;</li>
+ * <li>publish: pushes the views to the AppWidgetManager, on a single thread, in the
+ * order they have been rendered.</li>
+ * </ul>
+ * The stages are joined by bounded queues, and block the stage that feeds them while
+ * their queue is full. The main thread, which feeds the render stage with the
+ * render-only updates, must use {@link #tryRender(Runnable)} instead, which never blocks.
+ * <p/>
+ * Each stage keeps track of its latency (the time between a task being queued and
+ * its completion) and of its run time.
+ */
+class UpdatePipeline {
+
+    private static final String TAG = UpdatePipeline.class.getSimpleName();
+
+    private static final int FETCH_QUEUE_SIZE = 2;
+    private static final int RENDER_QUEUE_SIZE = 8;
+    private static final int PUBLISH_QUEUE_SIZE = 8;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private final Stage mFetchStage = new Stage("fetch", FETCH_QUEUE_SIZE);
+    private final Stage mRenderStage = new Stage("render", RENDER_QUEUE_SIZE);
+    private final Stage mPublishStage = new Stage("publish", PUBLISH_QUEUE_SIZE);
+
+    /**
+     * Runs a task in the fetch stage, blocking while its queue is full.
+     *
+     * @param task The task
+     * @throws RejectedExecutionException If the pipeline is shut down
+     */
+    public void fetch(Runnable task) {
+        mFetchStage.execute(task, true);
+    }
+
+    /**
+     * Runs a task in the render stage, if its queue isn't full. This never blocks.
+     *
+     * @param task The task
+     * @return Returns true if the task has been queued, false if the queue is full
+     * @throws RejectedExecutionException If the pipeline is shut down
+     */
+    public boolean tryRender(Runnable task) {
+        try {
+            mRenderStage.execute(task, false);
+            return true;
+        }
+        catch (StageFullException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Runs a task in the render stage, blocking while its queue is full.
+     *
+     * @param task The task
+     */
+    public void render(Runnable task) {
+        mRenderStage.execute(task, true);
+    }
+
+    /**
+     * Runs a task in the publish stage, blocking while its queue is full.
+     *
+     * @param task The task
+     */
+    public void publish(Runnable task) {
+        mPublishStage.execute(task, true);
+    }
+
+    /**
+     * Logs the latency metrics of all the stages.
+     */
+    public void logMetrics() {
+        mFetchStage.logMetrics();
+        mRenderStage.logMetrics();
+        mPublishStage.logMetrics();
+    }
+
+    /**
+     * Stops accepting tasks. The queued tasks are still run.
+     */
+    public void shutdown() {
+        mFetchStage.mExecutor.shutdown();
+        mRenderStage.mExecutor.shutdown();
+        mPublishStage.mExecutor.shutdown();
+    }
+
+    /**
+     * A pipeline stage, with its executor and metrics.
+     */
+    private static class Stage {
+
+        private final String mName;
+        private final ThreadPoolExecutor mExecutor;
+
+        private int mCount;
+        private long mTotalLatencyNanos;
+        private long mMaxLatencyNanos;
+        private long mTotalRunNanos;
+
+        private Stage(String name, int queueSize) {
+            mName = name;
+            mExecutor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                                               new ArrayBlockingQueue<Runnable>(queueSize),
+                                               new StageThreadFactory(name), BLOCK_WHEN_FULL);
+            mExecutor.allowCoreThreadTimeOut(true);
+        }
+
+        private void execute(Runnable task, boolean blocking) {
+            mExecutor.execute(new StageTask(this, task, blocking));
+        }
+
+        private synchronized void record(long latencyNanos, long runNanos) {
+            mCount++;
+            mTotalLatencyNanos += latencyNanos;
+            mTotalRunNanos += runNanos;
+            mMaxLatencyNanos = Math.max(mMaxLatencyNanos, latencyNanos);
+        }
+
+        private synchronized void logMetrics() {
+            if (mCount == 0) {
+                return;
+            }
+
+            FLog.d(TAG, String.format("Stage %s: %d tasks, latency avg %.1f ms (max %.1f ms), run time avg %.1f ms",
+                                      mName, mCount,
+                                      mTotalLatencyNanos / 1e6 / mCount, mMaxLatencyNanos / 1e6,
+                                      mTotalRunNanos / 1e6 / mCount));
+        }
+    }
+
+    /**
+     * A task queued in a stage, which records its metrics when it's done.
+     */
+    private static class StageTask implements Runnable {
+
+        private final Stage mStage;
+        private final Runnable mTask;
+        private final boolean mBlocking;
+        private final long mQueuedAt = System.nanoTime();
+
+        private StageTask(Stage stage, Runnable task, boolean blocking) {
+            mStage = stage;
+            mTask = task;
+            mBlocking = blocking;
+        }
+
+        @Override
+        public void run() {
+            final long startedAt = System.nanoTime();
+            try {
+                mTask.run();
+            }
+            catch (RuntimeException e) {
+                FLog.e(TAG, "Error in the " + mStage.mName + " stage", e);
+            }
+            finally {
+                final long endedAt = System.nanoTime();
+                mStage.record(endedAt - mQueuedAt, endedAt - startedAt);
+            }
+        }
+    }
+
+    /**
+     * Thrown when a non-blocking task can't be queued because the stage queue is full.
+     */
+    private static class StageFullException extends RejectedExecutionException {
+
+        private StageFullException() {
+            super("The stage queue is full");
+        }
+    }
+
+    /**
+     * Makes the stage that submits a task wait while the target stage queue is full,
+     * unless the task has been submitted as non-blocking.
+     */
+    private static final RejectedExecutionHandler BLOCK_WHEN_FULL = new RejectedExecutionHandler() {
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("The pipeline has been shut down");
+            }
+
+            if (r instanceof StageTask && !((StageTask) r).mBlocking) {
+                throw new StageFullException();
+            }
+
+            try {
+                executor.getQueue().put(r);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("Interrupted while waiting for the stage queue", e);
+            }
+        }
+    };
+
+    /**
+     * Names the stage threads, and runs them in background priority.
+     */
+    private static class StageThreadFactory implements ThreadFactory {
+
+        private final String mName;
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        private StageThreadFactory(String name) {
+            mName = name;
+        }
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
+                    r.run();
+                }
+            }, "FWeather-" + mName + "-" + mCount.incrementAndGet());
+        }
+    }
+}
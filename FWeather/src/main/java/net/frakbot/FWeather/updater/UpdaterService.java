@@ -17,8 +17,8 @@
 package net.frakbot.FWeather.updater;
 
 import android.annotation.TargetApi;
-import android.app.IntentService;
 import android.app.PendingIntent;
+import android.app.Service;
 import android.appwidget.AppWidgetManager;
 import android.appwidget.AppWidgetProviderInfo;
 import android.content.Context;
@@ -30,32 +30,46 @@ import android.content.res.Resources;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.IBinder;
 import android.preference.PreferenceManager;
 import android.provider.Settings;
 import android.text.TextUtils;
 import android.util.DisplayMetrics;
+import android.util.SparseArray;
 import android.view.View;
 import android.widget.RemoteViews;
 import android.widget.Toast;
 import net.frakbot.FWeather.R;
 import net.frakbot.FWeather.activity.SettingsActivity;
+import net.frakbot.FWeather.updater.weather.HttpTransport;
+import net.frakbot.FWeather.updater.weather.model.TemperatureBuckets;
 import net.frakbot.FWeather.updater.weather.model.WeatherData;
 import net.frakbot.FWeather.util.*;
 import net.frakbot.global.Const;
 import net.frakbot.util.log.FLog;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
- * Updater service for the widgets.
+ * Updater service for the widgets. The update requests are merged by an
+ * {@link UpdateCoalescer} and run through an {@link UpdatePipeline}; the service
+ * stops itself when no updates are in progress or pending.
+ * <p/>
+ * Render-only requests go straight to the render stage, with the cached weather.
+ * Only one fetch runs at a time: the requests received while it's running are
+ * held, then rendered with the weather it fetched (or fetched again, if forced).
  * TODO: deregister all location providers when no widgets are available
  *
  * @author Sebastiano Poggi, Francesco Pontillo
  */
-public class UpdaterService extends IntentService {
+public class UpdaterService extends Service {
 
     public static final String TAG = UpdaterService.class.getSimpleName();
     private WidgetHelper mWidgetHelper;
@@ -63,15 +77,30 @@ public class UpdaterService extends IntentService {
     public static final String EXTRA_USER_FORCE_UPDATE = "the_motherfocker_wants_us_to_do_stuff";
     public static final String EXTRA_SILENT_FORCE_UPDATE = "a_ninja_is_making_me_do_it";
     public static final String EXTRA_WIDGET_IDS = "widget_ids";
+    public static final String EXTRA_FULL_UPDATE = "full_update";
 
     private static final Pattern REGEX_LANGCODE_SIMPLE = Pattern.compile("[a-z]{2}");
     private static final Pattern REGEX_LANGCODE_COUNTRY = Pattern.compile("([a-z]{2})\\-([A-Z]{2})");
 
+    // How long to wait before retrying to start an update when the pipeline is full
+    private static final long PIPELINE_FULL_RETRY_DELAY = 1000;
+
     private Handler mHandler;
+    private UpdatePipeline mPipeline;
+    // These are only accessed on the main thread
+    private int mActiveUpdates;
+    private int mLastStartId;
 
-    public UpdaterService() {
-        super(UpdaterService.class.getSimpleName());
-    }
+    // Guards the running fetch and the requests held until it ends
+    private final Object mFetchLock = new Object();
+    private boolean mFetchInProgress;
+    private UpdateCoalescer.Request mHeldRequest;
+
+    // What each widget is currently showing, to skip or reduce the updates
+    private static final SparseArray<WidgetState> sWidgetStates = new SparseArray<WidgetState>();
+
+    // Merges the update requests received in a short time into a single update pass
+    private static final UpdateCoalescer sCoalescer = new UpdateCoalescer();
 
     @Override
     public void onCreate() {
@@ -81,6 +110,7 @@ public class UpdaterService extends IntentService {
         FLog.i(this, TAG, "Initializing the UpdaterService");
         mWidgetHelper = new WidgetHelper(this);
         mHandler = new Handler();
+        mPipeline = new UpdatePipeline();
 
         // Initialize the amazing LocationHelper
         // (the method is idempotent)
@@ -88,89 +118,493 @@ public class UpdaterService extends IntentService {
     }
 
     @Override
-    protected void onHandleIntent(Intent intent) {
-        FLog.d(this, TAG, "onHandleIntent");
+    public void onDestroy() {
+        FLog.d(this, TAG, "onDestroy");
+        mHandler.removeCallbacks(mStartPendingUpdate);
+        mPipeline.shutdown();
+        super.onDestroy();
+    }
 
-        // Deregister the connection listener, if any
-        ConnectionHelper.unregisterConnectivityListener(getApplicationContext());
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
 
-        // First thing, recheck the log filtering levels
-        FLog.recheckLogLevels();
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+        super.onConfigurationChanged(newConfig);
 
-        int[] appWidgetIds = intent.getIntArrayExtra(EXTRA_WIDGET_IDS);
+        // The cached phrases and colors may not be valid anymore
+        WidgetHelper.invalidateResourceCaches();
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        FLog.d(this, TAG, "onStartCommand");
+        mLastStartId = startId;
+
+        // Queue the request, so that it can be merged with the ones that follow it
+        final int[] appWidgetIds = intent != null ? intent.getIntArrayExtra(EXTRA_WIDGET_IDS) : null;
         if (appWidgetIds == null || appWidgetIds.length == 0) {
             FLog.d(this, TAG, "Intent with no widgets ID received, ignoring\n\t> " + intent);
-            return;
+            stopIfIdle();
+            return START_NOT_STICKY;
         }
 
-        boolean forced = intent.getBooleanExtra(EXTRA_USER_FORCE_UPDATE, false);
+        final boolean forced = intent.getBooleanExtra(EXTRA_USER_FORCE_UPDATE, false);
+        final long delay = sCoalescer.offer(appWidgetIds, forced, intent.getBooleanExtra(EXTRA_FULL_UPDATE, false));
 
         if (forced) {
             FLog.i(this, TAG, "User has requested a forced update");
-            // Show a toast message
-            mHandler.post(new Runnable() {
+            WidgetHelper.makeToast(this, R.string.toast_force_update, Toast.LENGTH_LONG).show();
+        }
+
+        mHandler.removeCallbacks(mStartPendingUpdate);
+        mHandler.postDelayed(mStartPendingUpdate, delay);
+        return START_NOT_STICKY;
+    }
+
+    /**
+     * Starts the pending (merged) update request, if it's ready.
+     */
+    private final Runnable mStartPendingUpdate = new Runnable() {
+        @Override
+        public void run() {
+            final UpdateCoalescer.Request request = sCoalescer.poll();
+            if (request != null) {
+                startUpdate(request);
+            }
+        }
+    };
+
+    /**
+     * Starts an update pass through the pipeline: the weather is fetched in the fetch
+     * stage (or read from the cache, for render-only requests), and each widget variant
+     * rendered in the render stage is pushed to the widgets in the publish stage.
+     * Must be called on the main thread.
+     *
+     * @param request The update request
+     */
+    private void startUpdate(final UpdateCoalescer.Request request) {
+        // Deregister the connection listener, if any
+        ConnectionHelper.unregisterConnectivityListener(getApplicationContext());
+
+        // First thing, recheck the log filtering levels
+        FLog.recheckLogLevels();
+
+        if (request.renderOnly) {
+            // The main thread must never block on a full render queue
+            final boolean queued = mPipeline.tryRender(new Runnable() {
                 @Override
                 public void run() {
-                    // We need this because the IntentService thread is too fast and dies too soon,
-                    // resulting in the toast being on screen for an unpercievable time
-                    WidgetHelper.makeToast(UpdaterService.this, R.string.toast_force_update, Toast.LENGTH_LONG)
-                            .show();
+                    renderCachedWeather(request);
                 }
             });
+            if (!queued) {
+                FLog.d(this, TAG, "Too many updates in progress, delaying the next one");
+                sCoalescer.offer(request.widgetIds, request.forced, request.fullUpdate);
+                mHandler.removeCallbacks(mStartPendingUpdate);
+                mHandler.postDelayed(mStartPendingUpdate, PIPELINE_FULL_RETRY_DELAY);
+                return;
+            }
+
+            FLog.i(this, TAG, "Rendering the widgets with the cached weather");
+            mActiveUpdates++;
+            return;
+        }
+
+        synchronized (mFetchLock) {
+            if (mFetchInProgress) {
+                // Fold the request into the running fetch
+                FLog.i(this, TAG, "A fetch is already running, the widgets will be updated when it's done");
+                if (mHeldRequest == null) {
+                    mActiveUpdates++;
+                }
+                mHeldRequest = UpdateCoalescer.Request.merge(mHeldRequest, request);
+                return;
+            }
+            mFetchInProgress = true;
         }
 
         FLog.i(this, TAG, "Starting widgets update");
-        AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(this);
-        assert appWidgetManager != null;
+        mActiveUpdates++;
+        startFetch(request);
+    }
 
-        // Get the latest weather info (new or cached)
-        WeatherData weather;
+    /**
+     * Queues a fetch in the fetch stage. The caller must have set the fetch in progress.
+     *
+     * @param request The update request
+     */
+    private void startFetch(final UpdateCoalescer.Request request) {
         try {
-            weather = WeatherHelper.getWeather(this, forced);
-        } catch (LocationHelper.LocationNotReadyYetException justWaitException) {
-            // If the location is not ready yet, leave the View unchanged
-            FLog.d(this, TAG, "The LocationHelper is not ready yet, the updater will be called again " +
-                    "when a location is available.");
-            weather = new WeatherData();
-            weather.conditionCode = WeatherData.INVALID_CONDITION;
-        } catch (IOException e) {
-            // Caught if there are connection issues
-            // Get the latest cached weather information
-            FLog.e(this, TAG, "Error while fetching the weather, using a cached value", e);
-            weather = WeatherHelper.getLatestWeather();
-            // Register a connection listener
-            FLog.d(this, TAG, "Registering a connection listener");
-            ConnectionHelper.registerConnectivityListener(getApplicationContext());
+            mPipeline.fetch(new Runnable() {
+                @Override
+                public void run() {
+                    WeatherData weather = null;
+                    try {
+                        weather = fetchWeather(request);
+                    }
+                    finally {
+                        onFetchFinished(weather);
+                    }
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            FLog.e(this, TAG, "Unable to start the widgets update", e);
+            synchronized (mFetchLock) {
+                mFetchInProgress = false;
+            }
+            onUpdateFinishedAsync();
         }
+    }
+
+    /**
+     * Render stage of a render-only update pass: renders the widgets with the cached
+     * weather, or falls back to a fetch if there is none.
+     *
+     * @param request The update request
+     */
+    private void renderCachedWeather(final UpdateCoalescer.Request request) {
+        final WeatherData weather;
+        try {
+            weather = WeatherHelper.getStaleWeather(this);
+        }
+        catch (RuntimeException e) {
+            finishUpdateAfterPublish();
+            throw e;
+        }
+
+        if (weather != null) {
+            renderAndPublish(request.widgetIds, weather, request.fullUpdate, false, true);
+            return;
+        }
+
+        FLog.i(this, TAG, "No cached weather to render the widgets with, fetching it");
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                // This pass goes on as a regular one
+                mActiveUpdates--;
+                startUpdate(request.withFetch());
+            }
+        });
+    }
+
+    /**
+     * Ends the running fetch, then renders the requests held in the meantime with the
+     * fetched weather, or fetches it again if they're forced or the fetch failed.
+     * Runs in the fetch stage.
+     *
+     * @param weather The fetched weather (can be null)
+     */
+    private void onFetchFinished(WeatherData weather) {
+        final UpdateCoalescer.Request held;
+        synchronized (mFetchLock) {
+            held = mHeldRequest;
+            mHeldRequest = null;
+
+            final boolean fetchAgain = held != null && (held.forced || weather == null || weather.conditionCode < 0);
+            mFetchInProgress = fetchAgain;
+            if (fetchAgain) {
+                FLog.i(this, TAG, "Fetching the weather again for the requests received in the meantime");
+                startFetch(held);
+                return;
+            }
+        }
+
+        if (held != null) {
+            FLog.i(this, TAG, "Updating the widgets requested in the meantime with the fetched weather");
+            renderWidgets(held.widgetIds, weather, held.fullUpdate, false, true);
+        }
+    }
+
+    /**
+     * Fetch stage of an update pass.
+     *
+     * @param request The update request
+     * @return Returns the fetched weather, or null if there is none
+     */
+    private WeatherData fetchWeather(final UpdateCoalescer.Request request) {
+        final boolean forced = request.forced;
+        // Forced updates push the whole widgets even if nothing changed
+        final boolean fullUpdate = forced || request.fullUpdate;
+
+        try {
+            // Show the cached weather right away, if the user wants so, then refresh it
+            WeatherData staleWeather = null;
+            if (!forced && WidgetConfig.get(this).serveStale) {
+                staleWeather = WeatherHelper.getStaleWeather(this);
+                if (staleWeather != null) {
+                    FLog.i(this, TAG, "Updating the widgets with the cached weather while refreshing it");
+                    renderWidgets(request.widgetIds, staleWeather, fullUpdate, false, false);
+                }
+            }
+
+            // Get the latest weather info (new or cached)
+            final long wireBytesBefore = HttpTransport.getWireBytesCount();
+            final long decodedBytesBefore = HttpTransport.getDecodedBytesCount();
+            WeatherData weather;
+            try {
+                weather = WeatherHelper.getWeather(this, forced);
+            } catch (IOException e) {
+                // Caught if there are connection issues
+                // Get the latest cached weather information
+                FLog.e(this, TAG, "Error while fetching the weather, using a cached value", e);
+                weather = WeatherHelper.getLatestWeather();
+                // Register a connection listener
+                FLog.d(this, TAG, "Registering a connection listener");
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        ConnectionHelper.registerConnectivityListener(getApplicationContext());
+                    }
+                });
+            }
+
+            FLog.d(this, TAG, String.format("Weather update transferred %d bytes (%d bytes decoded)",
+                    HttpTransport.getWireBytesCount() - wireBytesBefore,
+                    HttpTransport.getDecodedBytesCount() - decodedBytesBefore));
+
+            // Reschedule the alarm
+            AlarmHelper.rescheduleAlarm(this);
+
+            if (staleWeather != null &&
+                (weather == null || weather.conditionCode < 0 || staleWeather.equals(weather))) {
+                // Don't replace the cached weather with the same data, or with an error
+                FLog.i(this, TAG, "The refreshed weather hasn't changed or isn't available, keeping the cached one");
+                finishUpdateAfterPublish();
+            } else {
+                renderWidgets(request.widgetIds, weather, fullUpdate && staleWeather == null, forced, true);
+            }
+            return weather;
+        }
+        catch (RuntimeException e) {
+            // Make sure the update pass is over, or the service won't stop
+            finishUpdateAfterPublish();
+            throw e;
+        }
+    }
+
+    /**
+     * Queues the rendering of the widgets with the given weather in the render stage.
+     *
+     * @param appWidgetIds The IDs of the widgets to update
+     * @param weather      The weather to update with
+     * @param fullUpdate   True to push the whole contents of all the widgets
+     * @param newPhrases   True to pick new phrases even if the weather hasn't changed
+     * @param lastRender   True if this is the last render of the update pass
+     */
+    private void renderWidgets(final int[] appWidgetIds, final WeatherData weather, final boolean fullUpdate,
+                               final boolean newPhrases, final boolean lastRender) {
+        mPipeline.render(new Runnable() {
+            @Override
+            public void run() {
+                renderAndPublish(appWidgetIds, weather, fullUpdate, newPhrases, lastRender);
+            }
+        });
+    }
+
+    /**
+     * Renders the widgets with the given weather, and queues their publication.
+     * This must only be called from the render stage.
+     *
+     * @param appWidgetIds The IDs of the widgets to update
+     * @param weather      The weather to update with
+     * @param fullUpdate   True to push the whole contents of all the widgets
+     * @param newPhrases   True to pick new phrases even if the weather hasn't changed
+     * @param lastRender   True if this is the last render of the update pass
+     */
+    private void renderAndPublish(int[] appWidgetIds, WeatherData weather, boolean fullUpdate, boolean newPhrases,
+                                  boolean lastRender) {
+        List<UpdateBatch> batches = null;
+        try {
+            batches = getUpdateBatches(AppWidgetManager.getInstance(this), appWidgetIds, weather, fullUpdate,
+                                       newPhrases);
+        }
+        finally {
+            publishWidgets(batches, lastRender);
+        }
+    }
+
+    /**
+     * Queues the publication of the rendered widgets in the publish stage.
+     *
+     * @param batches    The rendered widget updates (can be null)
+     * @param lastRender True if this is the last publication of the update pass
+     */
+    private void publishWidgets(final List<UpdateBatch> batches, final boolean lastRender) {
+        mPipeline.publish(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (batches != null) {
+                        pushUpdateBatches(AppWidgetManager.getInstance(UpdaterService.this), batches);
+                    }
+                }
+                finally {
+                    if (lastRender) {
+                        FLog.i(UpdaterService.this, TAG, "All widgets updated successfully");
+                        onUpdateFinishedAsync();
+                    }
+                }
+            }
+        });
+    }
 
+    /**
+     * Ends the update pass once all of its renders have been published.
+     */
+    private void finishUpdateAfterPublish() {
+        publishWidgets(null, true);
+    }
+
+    /**
+     * Notifies the main thread that an update pass is over.
+     */
+    private void onUpdateFinishedAsync() {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                onUpdateFinished();
+            }
+        });
+    }
+
+    /**
+     * Called on the main thread when an update pass is over.
+     */
+    private void onUpdateFinished() {
+        mActiveUpdates--;
+        mPipeline.logMetrics();
+        stopIfIdle();
+    }
+
+    /**
+     * Stops the service if there are no updates in progress or pending.
+     */
+    private void stopIfIdle() {
+        if (mActiveUpdates == 0 && !sCoalescer.hasPending()) {
+            FLog.d(this, TAG, "No more updates, stopping the service");
+            stopSelf(mLastStartId);
+        }
+    }
+
+    /**
+     * Computes the updates for the given widgets, with the given weather. Widgets whose
+     * contents wouldn't change are not updated, unless a full update is requested; widgets
+     * whose contents only partially change are partially updated.
+     * <p/>
+     * The widgets are grouped by variant (layout and host category), and each variant
+     * is rendered only once; the resulting views are then pushed to all the widgets
+     * that need the same update in a single call.
+     * <p/>
+     * This must only be called from the render stage, since it records the new widget
+     * states (which will be published in the same order).
+     *
+     * @param appWidgetManager The AppWidgetManager
+     * @param appWidgetIds     The IDs of the widgets to update
+     * @param weather          The weather to update with
+     * @param fullUpdate       True to push the whole contents of all the widgets
+     * @param newPhrases       True to pick new phrases even if the weather hasn't changed
+     * @return Returns the widget updates
+     */
+    private List<UpdateBatch> getUpdateBatches(AppWidgetManager appWidgetManager, int[] appWidgetIds,
+                                               WeatherData weather, boolean fullUpdate, boolean newPhrases) {
         Locale defaultLocale = null, selectedLocale;
         if ((selectedLocale = getUserSelectedLocale(this)) != null) {
             defaultLocale = switchLocale(this, selectedLocale);
         }
+        mWidgetHelper.setLocale(selectedLocale);
+
+        // The variants are keyed by layout ID, one set for each host category
+        final SparseArray<WidgetState> homeVariants = new SparseArray<WidgetState>();
+        final SparseArray<WidgetState> keyguardVariants = new SparseArray<WidgetState>();
+        final List<UpdateBatch> batches = new ArrayList<UpdateBatch>();
 
-        // Perform this loop procedure for each App Widget that belongs to this provider
-        for (int appWidgetId : appWidgetIds) {
-            FLog.i(this, TAG, "Updating the widget views for widget #" + appWidgetId);
+        try {
+            for (int appWidgetId : appWidgetIds) {
+                final int layoutId = getWidgetLayout(appWidgetManager, appWidgetId);
+                final boolean onKeyguard = isOnKeyguard(appWidgetManager, appWidgetId);
+                final SparseArray<WidgetState> variants = onKeyguard ? keyguardVariants : homeVariants;
+
+                final WidgetState previousState;
+                synchronized (sWidgetStates) {
+                    previousState = sWidgetStates.get(appWidgetId);
+                }
 
-            // Get the widget layout and update it
-            RemoteViews views = new RemoteViews(getPackageName(),
-                    getWidgetLayout(appWidgetManager, appWidgetId));
-            updateViews(views, weather, appWidgetIds);
-            setupViewsForKeyguard(views, appWidgetManager, appWidgetId);
+                WidgetState state = variants.get(layoutId);
+                if (state == null) {
+                    state = getWidgetState(layoutId, onKeyguard, weather, appWidgetIds,
+                                           newPhrases ? null : previousState);
+                    variants.put(layoutId, state);
+                }
+                int changes = fullUpdate ? WidgetState.ALL_GROUPS : state.diff(previousState);
 
-            // Tell the AppWidgetManager to perform an update on the current app widget
-            appWidgetManager.updateAppWidget(appWidgetId, views);
-        }
+                if (changes == 0) {
+                    FLog.v(this, TAG, "Widget #" + appWidgetId + " is unchanged, skipping it");
+                    continue;
+                }
+
+                if ((changes & WidgetState.FULL_UPDATE_GROUPS) != 0) {
+                    changes = WidgetState.ALL_GROUPS;
+                }
+                UpdateBatch.add(batches, state, changes, appWidgetId);
 
-        // If we switched the locale, let's restore the default one
-        if (selectedLocale != null) {
-            switchLocale(this, defaultLocale);
+                synchronized (sWidgetStates) {
+                    sWidgetStates.put(appWidgetId, state);
+                }
+            }
+
+            for (UpdateBatch batch : batches) {
+                batch.views = buildViews(batch.state, batch.groups);
+            }
         }
+        finally {
+            // If we switched the locale, let's restore the default one
+            if (selectedLocale != null) {
+                switchLocale(this, defaultLocale);
+            }
+        }
+
+        return batches;
+    }
 
-        // Reschedule the alarm
-        AlarmHelper.rescheduleAlarm(this);
+    /**
+     * Tells the AppWidgetManager to perform the updates on each group of widgets.
+     * This must only be called from the publish stage.
+     *
+     * @param appWidgetManager The AppWidgetManager
+     * @param batches          The widget updates
+     */
+    private void pushUpdateBatches(AppWidgetManager appWidgetManager, List<UpdateBatch> batches) {
+        for (UpdateBatch batch : batches) {
+            final int[] ids = batch.getWidgetIds();
+
+            if (batch.groups == WidgetState.ALL_GROUPS) {
+                FLog.i(this, TAG, "Updating the widget views for widgets " + Arrays.toString(ids));
+                appWidgetManager.updateAppWidget(ids, batch.views);
+            } else {
+                FLog.i(this, TAG, "Partially updating the widget views for widgets " + Arrays.toString(ids) +
+                                  " (changes: 0x" + Integer.toHexString(batch.groups) + ")");
+                appWidgetManager.partiallyUpdateAppWidget(ids, batch.views);
+            }
+        }
+    }
 
-        FLog.i(this, TAG, "All widgets updated successfully");
+    /**
+     * Forgets what the widgets are showing, so that their next update is a full one.
+     * Call this when the widgets are deleted.
+     *
+     * @param appWidgetIds The IDs of the widgets
+     */
+    public static void forgetWidgetStates(int[] appWidgetIds) {
+        synchronized (sWidgetStates) {
+            for (int appWidgetId : appWidgetIds) {
+                sWidgetStates.remove(appWidgetId);
+            }
+        }
     }
 
     /**
@@ -279,76 +713,143 @@ public class UpdaterService extends IntentService {
     }
 
     /**
-     * Updates the widget's views.
+     * Computes what a widget variant has to show.
      *
-     * @param views   The RemoteViews to use
-     * @param weather The weather to update with
+     * @param layoutId   The layout of the widget variant
+     * @param onKeyguard True if the widget variant is on the lockscreen
+     * @param weather    The weather to update with
+     * @param widgetIds  The IDs of all the widgets being updated
+     * @param previous   The state the phrases can be kept from, or null to pick new ones
+     * @return Returns the widget state
      */
-    private void updateViews(RemoteViews views, WeatherData weather, int[] widgetIds) {
-        final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
-        final boolean darkMode = prefs.getBoolean(getString(R.string.pref_key_ui_darkmode), false);
+    private WidgetState getWidgetState(int layoutId, boolean onKeyguard, WeatherData weather, int[] widgetIds,
+                                       WidgetState previous) {
+        final WidgetConfig config = WidgetConfig.get(this);
+        final boolean darkMode = config.darkMode;
+        final WidgetState state = new WidgetState();
+
+        state.layoutId = layoutId;
+        state.darkMode = darkMode;
 
         // Determine the main text color for the widget
-        int textColor;
         if (!darkMode) {
-            textColor = getResources().getColor(R.color.text_widget_main_color);
+            state.textColor = getResources().getColor(R.color.text_widget_main_color);
         } else {
-            textColor = getResources().getColor(R.color.text_widget_main_color_dark);
+            state.textColor = getResources().getColor(R.color.text_widget_main_color_dark);
         }
 
-        // Show/hide elements, and update them only if needed
-        views.setTextViewText(R.id.txt_weather, mWidgetHelper.getWeatherMainString(weather, darkMode));
-        views.setTextColor(R.id.txt_weather, textColor);
-        int bgColorPrefValue = getWidgetBgColorPrefValue(prefs);
-        views.setInt(R.id.content, "setBackgroundColor",
-                mWidgetHelper.getWidgetBGColor(bgColorPrefValue, darkMode));
-
-        if (prefs.getBoolean(getString(R.string.pref_key_ui_toggle_temperature_info), true)) {
-            views.setViewVisibility(R.id.txt_temp, View.VISIBLE);
-            views.setTextViewText(R.id.txt_temp, mWidgetHelper.getWeatherTempString(weather, darkMode));
-            views.setTextColor(R.id.txt_temp, textColor);
+        // Keep the phrases the widget is showing while the weather they describe doesn't change
+        state.conditionCode = weather != null ? weather.conditionCode : -1;
+        state.temperatureRange = TemperatureBuckets.getTemperatureRangeDescriptor(weather);
+        if (state.canKeepPhrasesOf(previous)) {
+            state.weatherPhrase = previous.weatherPhrase;
+            state.temperaturePhrase = previous.temperaturePhrase;
         } else {
-            views.setViewVisibility(R.id.txt_temp, View.GONE);
+            state.weatherPhrase = mWidgetHelper.getWeatherMainPhrase(weather);
+            state.temperaturePhrase = mWidgetHelper.getWeatherTempPhrase(weather);
         }
 
-        if (prefs.getBoolean(getString(R.string.pref_key_ui_toggle_weather_icon), true)) {
-            views.setViewVisibility(R.id.img_weathericon, View.VISIBLE);
-            views.setImageViewResource(R.id.img_weathericon, mWidgetHelper.getWeatherImageId(weather, darkMode));
-        } else {
-            views.setViewVisibility(R.id.img_weathericon, View.INVISIBLE);
-        }
+        state.weatherText = mWidgetHelper.getPhraseSpanned(state.weatherPhrase, darkMode);
+        state.bgColor = mWidgetHelper.getWidgetBGColor(config.bgOpacity, darkMode);
 
-        if (prefs.getBoolean(getString(R.string.pref_key_ui_toggle_buttons), true)) {
-            views.setViewVisibility(R.id.btn_settings, View.VISIBLE);
-            views.setViewVisibility(R.id.btn_refresh, View.VISIBLE);
-            views.setViewVisibility(R.id.btn_share, View.VISIBLE);
+        state.temperatureVisible = config.temperatureVisible;
+        if (state.temperatureVisible) {
+            state.temperatureText = mWidgetHelper.getPhraseSpanned(state.temperaturePhrase, darkMode);
+        }
 
-            views.setImageViewResource(R.id.btn_settings,
-                    darkMode ? R.drawable.ic_action_settings_dark : R.drawable.ic_action_settings);
-            views.setImageViewResource(R.id.btn_refresh,
-                    darkMode ? R.drawable.ic_action_refresh_dark : R.drawable.ic_action_refresh);
-            views.setImageViewResource(R.id.btn_share,
-                    darkMode ? R.drawable.ic_action_share_dark : R.drawable.ic_action_share);
-        } else {
-            views.setViewVisibility(R.id.btn_settings, View.GONE);
-            views.setViewVisibility(R.id.btn_refresh, View.GONE);
-            views.setViewVisibility(R.id.btn_share, View.GONE);
+        state.iconVisible = config.iconVisible;
+        if (state.iconVisible) {
+            state.iconId = mWidgetHelper.getWeatherImageId(weather, darkMode);
         }
 
-        // Initalize OnClick listeners
-        Intent i = new Intent(this, SettingsActivity.class);
-        views.setOnClickPendingIntent(R.id.btn_settings,
-                PendingIntent.getActivity(this, 0, i, 0));
+        // The refresh button is hidden on the lockscreen, the share button when there's nothing to share
+        state.buttonsVisible = config.buttonsVisible;
+        state.refreshVisible = state.buttonsVisible && !onKeyguard;
+        state.refreshWidgetIds = widgetIds;
 
-        i = new Intent(this, UpdaterService.class);
-        i.setAction(AppWidgetManager.ACTION_APPWIDGET_UPDATE);
-        i.putExtra(UpdaterService.EXTRA_WIDGET_IDS, widgetIds);
-        i.putExtra(UpdaterService.EXTRA_USER_FORCE_UPDATE, true);
-        views.setOnClickPendingIntent(R.id.btn_refresh, PendingIntent.getService(this, 0, i, 0));
+        if (weather != null && weather.conditionCode >= 0) {
+            state.shareText = mWidgetHelper.getShareString(state.weatherPhrase);
+        }
+        state.shareVisible = state.buttonsVisible && state.shareText != null;
 
         // If the user hasn't enabled location settings and there's no information available,
         // they can tap the widget to open the system Location Settings activity
-        if (weather != null && weather.conditionCode == WeatherData.WEATHER_ID_ERR_NO_LOCATION) {
+        state.locationError = weather != null && weather.conditionCode == WeatherData.WEATHER_ID_ERR_NO_LOCATION;
+
+        return state;
+    }
+
+    /**
+     * Builds the widget's views.
+     *
+     * @param state  The widget state to build the views for
+     * @param groups The groups of the state to set in the views (see {@link WidgetState})
+     * @return Returns the RemoteViews
+     */
+    private RemoteViews buildViews(WidgetState state, int groups) {
+        final RemoteViews views = new RemoteViews(getPackageName(), state.layoutId);
+        final boolean darkMode = state.darkMode;
+
+        // Show/hide elements, and update them only if needed
+        if ((groups & WidgetState.GROUP_WEATHER_TEXT) != 0) {
+            views.setTextViewText(R.id.txt_weather, state.weatherText);
+            views.setTextColor(R.id.txt_weather, state.textColor);
+        }
+
+        if ((groups & WidgetState.GROUP_BACKGROUND) != 0) {
+            views.setInt(R.id.content, "setBackgroundColor", state.bgColor);
+        }
+
+        if ((groups & WidgetState.GROUP_TEMPERATURE) != 0) {
+            if (state.temperatureVisible) {
+                views.setViewVisibility(R.id.txt_temp, View.VISIBLE);
+                views.setTextViewText(R.id.txt_temp, state.temperatureText);
+                views.setTextColor(R.id.txt_temp, state.textColor);
+            } else {
+                views.setViewVisibility(R.id.txt_temp, View.GONE);
+            }
+        }
+
+        if ((groups & WidgetState.GROUP_ICON) != 0) {
+            if (state.iconVisible) {
+                views.setViewVisibility(R.id.img_weathericon, View.VISIBLE);
+                views.setImageViewResource(R.id.img_weathericon, state.iconId);
+            } else {
+                views.setViewVisibility(R.id.img_weathericon, View.INVISIBLE);
+            }
+        }
+
+        if ((groups & WidgetState.GROUP_BUTTONS) != 0) {
+            views.setViewVisibility(R.id.btn_settings, state.buttonsVisible ? View.VISIBLE : View.GONE);
+            views.setViewVisibility(R.id.btn_refresh, state.refreshVisible ? View.VISIBLE : View.GONE);
+            views.setViewVisibility(R.id.btn_share, state.shareVisible ? View.VISIBLE : View.GONE);
+
+            if (state.buttonsVisible) {
+                views.setImageViewResource(R.id.btn_settings,
+                        darkMode ? R.drawable.ic_action_settings_dark : R.drawable.ic_action_settings);
+                views.setImageViewResource(R.id.btn_refresh,
+                        darkMode ? R.drawable.ic_action_refresh_dark : R.drawable.ic_action_refresh);
+                views.setImageViewResource(R.id.btn_share,
+                        darkMode ? R.drawable.ic_action_share_dark : R.drawable.ic_action_share);
+            }
+        }
+
+        // Initalize OnClick listeners
+        if (groups == WidgetState.ALL_GROUPS) {
+            Intent i = new Intent(this, SettingsActivity.class);
+            views.setOnClickPendingIntent(R.id.btn_settings,
+                    PendingIntent.getActivity(this, 0, i, 0));
+        }
+
+        if ((groups & WidgetState.GROUP_REFRESH_ACTION) != 0) {
+            Intent i = new Intent(this, UpdaterService.class);
+            i.setAction(AppWidgetManager.ACTION_APPWIDGET_UPDATE);
+            i.putExtra(UpdaterService.EXTRA_WIDGET_IDS, state.refreshWidgetIds);
+            i.putExtra(UpdaterService.EXTRA_USER_FORCE_UPDATE, true);
+            views.setOnClickPendingIntent(R.id.btn_refresh, PendingIntent.getService(this, 0, i, 0));
+        }
+
+        if ((groups & WidgetState.GROUP_LOCATION_ERROR_ACTION) != 0 && state.locationError) {
             // The pending intent (Magnum PI, ha!) for the main TextViews
             PendingIntent enableLocationPendingIntent =
                     PendingIntent.getActivity(this, 0, new Intent(Settings.ACTION_LOCATION_SOURCE_SETTINGS), 0);
@@ -357,52 +858,28 @@ public class UpdaterService extends IntentService {
         }
 
         // Create and set the PendingIntent for the share action
-        if (weather != null && weather.conditionCode >= 0) {
+        if ((groups & WidgetState.GROUP_SHARE_ACTION) != 0 && state.shareText != null) {
             Intent shareIntent = new Intent(Intent.ACTION_SEND);
             shareIntent.setType("text/plain");
-            shareIntent.putExtra(Intent.EXTRA_TEXT, mWidgetHelper.getShareString(weather));
+            shareIntent.putExtra(Intent.EXTRA_TEXT, state.shareText);
             PendingIntent sharePendingIntent = PendingIntent.getActivity(this, 1, shareIntent, PendingIntent.FLAG_UPDATE_CURRENT);
             views.setOnClickPendingIntent(R.id.btn_share, sharePendingIntent);
-        } else {
-            views.setViewVisibility(R.id.btn_share, View.GONE);
         }
-    }
-
-    /**
-     * Gets the widget BG color opacity preference value, handling
-     * any format errors that could arise.
-     *
-     * @param prefs The SharedPreferences to retrieve the value from
-     * @return Returns the preference value, or a default value of 0 if there is
-     * any issue with the preference value retrieval.
-     */
-    private int getWidgetBgColorPrefValue(SharedPreferences prefs) {
-        final String defaultVal = "%NOVAL%";
-        final String prefVal = prefs.getString(getString(R.string.pref_key_ui_bgopacity), defaultVal);
 
-        try {
-            return Integer.parseInt(prefVal);
-        }
-        catch (NumberFormatException e) {
-            if (!defaultVal.equals(prefVal)) {
-                FLog.w(TAG, "Invalid preference value for UI BG opacity, defaulting to 0: " + prefVal, e);
-            }
-            return 0;
-        }
+        return views;
     }
 
     /**
-     * Sets up the widget views to adapt to it being on the lockscreen.
-     * This method doesn't do anything on Android 4.1.x and earlier, since
-     * there were no lockscreen widgets.
+     * Checks if a widget is on the lockscreen. Widgets are never on the lockscreen
+     * on Android 4.1.x and earlier, since there were no lockscreen widgets.
      *
-     * @param views            The widget RemoteViews
      * @param appWidgetManager The widget manager used to detect whether the widget
      *                         is on the lockscreen
      * @param widgetId         The ID of the widget
+     * @return Returns true if the widget is on the lockscreen, false otherwise
      */
     @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
-    private void setupViewsForKeyguard(RemoteViews views, AppWidgetManager appWidgetManager, int widgetId) {
+    private boolean isOnKeyguard(AppWidgetManager appWidgetManager, int widgetId) {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
             Bundle myOptions = appWidgetManager.getAppWidgetOptions(widgetId);
 
@@ -411,9 +888,58 @@ public class UpdaterService extends IntentService {
 
             if (category == AppWidgetProviderInfo.WIDGET_CATEGORY_KEYGUARD) {
                 FLog.v(TAG, "Hiding the refresh button: widget " + widgetId + " is on the keyguard");
-                views.setViewVisibility(R.id.btn_refresh, View.GONE);
+                return true;
             }
         }
+        return false;
     }
 
+    /**
+     * A set of widgets that receive the same views in the same update call.
+     */
+    private static class UpdateBatch {
+
+        final WidgetState state;
+        final int groups;
+        RemoteViews views;
+        private int[] mWidgetIds = new int[4];
+        private int mCount;
+
+        private UpdateBatch(WidgetState state, int groups) {
+            this.state = state;
+            this.groups = groups;
+        }
+
+        /**
+         * Adds a widget to the batch for the given state and groups, creating it if needed.
+         *
+         * @param batches     The batches
+         * @param state       The state of the widget
+         * @param groups      The groups to update
+         * @param appWidgetId The ID of the widget
+         */
+        static void add(List<UpdateBatch> batches, WidgetState state, int groups, int appWidgetId) {
+            UpdateBatch batch = null;
+            for (UpdateBatch candidate : batches) {
+                if (candidate.state == state && candidate.groups == groups) {
+                    batch = candidate;
+                    break;
+                }
+            }
+
+            if (batch == null) {
+                batch = new UpdateBatch(state, groups);
+                batches.add(batch);
+            }
+
+            if (batch.mCount == batch.mWidgetIds.length) {
+                batch.mWidgetIds = Arrays.copyOf(batch.mWidgetIds, batch.mCount * 2);
+            }
+            batch.mWidgetIds[batch.mCount++] = appWidgetId;
+        }
+
+        int[] getWidgetIds() {
+            return Arrays.copyOf(mWidgetIds, mCount);
+        }
+    }
 }
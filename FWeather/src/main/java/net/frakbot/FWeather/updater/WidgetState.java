@@ -0,0 +1,134 @@
+/*
+ * Copyright 2014 Sebastiano Poggi and Francesco Pontillo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.frakbot.FWeather.updater;
+
+import android.text.TextUtils;
+import net.frakbot.FWeather.util.WeatherResourceTable;
+
+import java.util.Arrays;
+
+/**
+ * Fingerprint of what a widget shows: its layout, texts, colors, icon, visibility
+ * flags and click actions. It's used to avoid pushing widget updates that wouldn't
+ * change anything, and to push only the parts of a widget that did change.
+ * <p/>
+ * The contents of a widget are split in groups, which can be updated independently
+ * (see {@link #diff(WidgetState)}). Some changes can't be applied as partial updates,
+ * because they need the previous actions to be cleared: see {@link #FULL_UPDATE_GROUPS}.
+ * <p/>
+ * The state also records the inputs its phrases have been picked for, so that the
+ * same phrases can be shown again while those don't change (see
+ * {@link #canKeepPhrasesOf(WidgetState)}).
+ */
+class WidgetState {
+
+    public static final int GROUP_LAYOUT = 1;
+    public static final int GROUP_WEATHER_TEXT = 1 << 1;
+    public static final int GROUP_BACKGROUND = 1 << 2;
+    public static final int GROUP_TEMPERATURE = 1 << 3;
+    public static final int GROUP_ICON = 1 << 4;
+    public static final int GROUP_BUTTONS = 1 << 5;
+    public static final int GROUP_REFRESH_ACTION = 1 << 6;
+    public static final int GROUP_SHARE_ACTION = 1 << 7;
+    public static final int GROUP_LOCATION_ERROR_ACTION = 1 << 8;
+
+    public static final int ALL_GROUPS = (1 << 9) - 1;
+
+    /**
+     * The groups whose changes require the whole widget to be updated: a different
+     * layout, and the removal of the location settings click actions on the texts.
+     */
+    public static final int FULL_UPDATE_GROUPS = GROUP_LAYOUT | GROUP_LOCATION_ERROR_ACTION;
+
+    public int layoutId;
+    public boolean darkMode;
+    public int conditionCode;
+    public int temperatureRange;
+    public WeatherResourceTable.Phrase weatherPhrase;
+    public WeatherResourceTable.Phrase temperaturePhrase;
+    public int textColor;
+    public CharSequence weatherText;
+    public int bgColor;
+    public boolean temperatureVisible;
+    public CharSequence temperatureText;
+    public boolean iconVisible;
+    public int iconId;
+    public boolean buttonsVisible;
+    public boolean refreshVisible;
+    public boolean shareVisible;
+    public int[] refreshWidgetIds;
+    public String shareText;
+    public boolean locationError;
+
+    /**
+     * Checks if the phrases picked for another state still describe this one: the
+     * weather condition, the temperature range and the dark mode are the same.
+     *
+     * @param other The other state, or null if there is none
+     * @return Returns true if the phrases of the other state can be reused
+     */
+    public boolean canKeepPhrasesOf(WidgetState other) {
+        return other != null && conditionCode == other.conditionCode &&
+               temperatureRange == other.temperatureRange && darkMode == other.darkMode;
+    }
+
+    /**
+     * Computes the groups that differ between this state and another one.
+     *
+     * @param other The other state, or null if there is none
+     * @return Returns the bitmask of the changed groups; all of them if other is null
+     */
+    public int diff(WidgetState other) {
+        if (other == null) {
+            return ALL_GROUPS;
+        }
+
+        int changes = 0;
+        if (layoutId != other.layoutId) {
+            changes |= GROUP_LAYOUT;
+        }
+        if (darkMode != other.darkMode || textColor != other.textColor ||
+            !TextUtils.equals(weatherText, other.weatherText)) {
+            changes |= GROUP_WEATHER_TEXT;
+        }
+        if (bgColor != other.bgColor) {
+            changes |= GROUP_BACKGROUND;
+        }
+        if (temperatureVisible != other.temperatureVisible || (temperatureVisible &&
+            (darkMode != other.darkMode || textColor != other.textColor ||
+             !TextUtils.equals(temperatureText, other.temperatureText)))) {
+            changes |= GROUP_TEMPERATURE;
+        }
+        if (iconVisible != other.iconVisible || (iconVisible && iconId != other.iconId)) {
+            changes |= GROUP_ICON;
+        }
+        if (buttonsVisible != other.buttonsVisible || refreshVisible != other.refreshVisible ||
+            shareVisible != other.shareVisible || (buttonsVisible && darkMode != other.darkMode)) {
+            changes |= GROUP_BUTTONS;
+        }
+        if (!Arrays.equals(refreshWidgetIds, other.refreshWidgetIds)) {
+            changes |= GROUP_REFRESH_ACTION;
+        }
+        if (!TextUtils.equals(shareText, other.shareText)) {
+            changes |= GROUP_SHARE_ACTION;
+        }
+        if (locationError != other.locationError) {
+            changes |= GROUP_LOCATION_ERROR_ACTION;
+        }
+        return changes;
+    }
+}
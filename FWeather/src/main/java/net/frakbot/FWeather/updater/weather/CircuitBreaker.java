@@ -0,0 +1,165 @@
+/*
+ * Copyright 2014 Sebastiano Poggi and Francesco Pontillo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.frakbot.FWeather.updater.weather;
+
+import android.os.SystemClock;
+import net.frakbot.global.Const;
+
+/**
+ * Circuit breaker for a remote endpoint. After a number of consecutive failed
+ * calls the circuit opens, and the calls to the endpoint are rejected right away
+ * (so that the callers can resort to cached data) until a cool-down period ends.
+ * Then a single trial call is let through: if it succeeds the circuit closes
+ * again, otherwise it stays open for another period.
+ * This class is thread safe.
+ */
+public class CircuitBreaker {
+
+    /** The Yahoo! Weather feed */
+    public static final CircuitBreaker WEATHER = new CircuitBreaker("Weather");
+    /** The Yahoo! GeoPlanet API */
+    public static final CircuitBreaker GEO_PLANET = new CircuitBreaker("GeoPlanet");
+
+    private static final CircuitBreaker[] ALL = new CircuitBreaker[] {WEATHER, GEO_PLANET};
+
+    private static final int FAILURE_THRESHOLD = Const.Thresholds.CIRCUIT_BREAKER_FAILURE_THRESHOLD;
+    private static final long OPEN_DURATION_MILLIS = Const.Thresholds.CIRCUIT_BREAKER_OPEN_DURATION * 1000L;
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String mName;
+    private State mState = State.CLOSED;
+    private int mConsecutiveFailures;
+    private long mOpenedAt;
+    private boolean mTrialInProgress;
+
+    private int mSuccessCount;
+    private int mFailureCount;
+    private int mRejectedCount;
+    private int mOpenCount;
+
+    private CircuitBreaker(String name) {
+        mName = name;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Checks if a call to the endpoint can be made. If it returns true, the
+     * outcome of the call must be reported with {@link #onSuccess()} or {@link #onFailure()}.
+     *
+     * @return Returns true if the call can be made, false if it must be skipped
+     */
+    public synchronized boolean allowRequest() {
+        updateState();
+
+        if (mState == State.CLOSED) {
+            return true;
+        }
+
+        if (mState == State.HALF_OPEN && !mTrialInProgress) {
+            mTrialInProgress = true;
+            return true;
+        }
+
+        mRejectedCount++;
+        return false;
+    }
+
+    /**
+     * Reports that a call to the endpoint succeeded.
+     */
+    public synchronized void onSuccess() {
+        mSuccessCount++;
+        mConsecutiveFailures = 0;
+        mTrialInProgress = false;
+        mState = State.CLOSED;
+    }
+
+    /**
+     * Reports that a call to the endpoint failed.
+     */
+    public synchronized void onFailure() {
+        mFailureCount++;
+        mConsecutiveFailures++;
+
+        if (mState == State.HALF_OPEN || mConsecutiveFailures >= FAILURE_THRESHOLD) {
+            if (mState != State.OPEN) {
+                mOpenCount++;
+            }
+            mState = State.OPEN;
+            mOpenedAt = SystemClock.elapsedRealtime();
+            mTrialInProgress = false;
+        }
+    }
+
+    /**
+     * Checks if the calls to the endpoint are being rejected.
+     *
+     * @return Returns true if the circuit is open and no trial call can be made yet
+     */
+    public synchronized boolean isOpen() {
+        updateState();
+        return mState == State.OPEN;
+    }
+
+    public synchronized State getState() {
+        updateState();
+        return mState;
+    }
+
+    /**
+     * Moves an open circuit to half-open once its cool-down period has ended.
+     * Must be called holding the lock.
+     */
+    private void updateState() {
+        if (mState == State.OPEN && SystemClock.elapsedRealtime() - mOpenedAt >= OPEN_DURATION_MILLIS) {
+            mState = State.HALF_OPEN;
+        }
+    }
+
+    /**
+     * Returns a description of the state and counters of the circuit.
+     *
+     * @return Returns the description
+     */
+    public synchronized String getStatus() {
+        updateState();
+        return String.format("%s: %s, %d ok, %d failed, %d skipped, opened %d times",
+                             mName, mState, mSuccessCount, mFailureCount, mRejectedCount, mOpenCount);
+    }
+
+    /**
+     * Returns a description of the state and counters of all the circuits.
+     *
+     * @return Returns the description, one line per circuit
+     */
+    public static String getAllStatuses() {
+        final StringBuilder sb = new StringBuilder();
+        for (CircuitBreaker breaker : ALL) {
+            if (sb.length() > 0) {
+                sb.append('\n');
+            }
+            sb.append(breaker.getStatus());
+        }
+        return sb.toString();
+    }
+}
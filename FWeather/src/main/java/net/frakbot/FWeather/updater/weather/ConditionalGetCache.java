@@ -0,0 +1,265 @@
+/*
+ * Copyright 2014 Sebastiano Poggi and Francesco Pontillo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.frakbot.FWeather.updater.weather;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.text.TextUtils;
+import android.util.Base64;
+import net.frakbot.FWeather.updater.weather.model.WeatherData;
+import net.frakbot.FWeather.updater.weather.model.WeatherDataCodec;
+import net.frakbot.util.log.FLog;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of the HTTP validators (ETag and Last-Modified) of the weather feeds,
+ * along with the weather data parsed from them. It's used to make conditional
+ * requests for the feeds, and to reuse the parsed data when the server answers
+ * with a 304 Not Modified.
+ * <p/>
+ * The cache is keyed by feed URL, so that the same WOEID with different units
+ * doesn't share the validators, and by town name, since the location label the
+ * parser builds includes the town the WOEID has been resolved from. It's thread safe and bounded in size; the least
+ * recently used entries are evicted first.
+ * <p/>
+ * Once {@link #setPersistent(Context) made persistent}, the entries are also
+ * stored in a dedicated SharedPreferences file, so that the validators survive
+ * the process being killed between updates.
+ *
+ * @author Sebastiano Poggi, Francesco Pontillo
+ */
+class ConditionalGetCache {
+
+    private static final String TAG = ConditionalGetCache.class.getSimpleName();
+
+    private static final String PREFS_NAME = "conditional_get_cache";
+    private static final int MAX_ENTRIES = 16;
+
+    private static final String KEY_TIMESTAMP = "timestamp";
+    private static final String KEY_ETAG = "etag";
+    private static final String KEY_LAST_MODIFIED = "last_modified";
+    private static final String KEY_DATA = "data";
+
+    private final Map<String, Entry> mEntries = new LinkedHashMap<String, Entry>(MAX_ENTRIES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private SharedPreferences mPreferences;
+
+    /**
+     * Makes the cache persistent: the entries are read from and written to the
+     * permanent storage from now on.
+     *
+     * @param context The current {@link Context}.
+     */
+    public synchronized void setPersistent(Context context) {
+        mPreferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Gets the cached entry for a feed URL and town.
+     *
+     * @param url  The feed URL
+     * @param town The town name the data is requested for
+     * @return Returns the entry, or null if there is none
+     */
+    public synchronized Entry get(String url, String town) {
+        final String key = getKey(url, town);
+        Entry entry = mEntries.get(key);
+        if (entry == null && mPreferences != null) {
+            entry = read(key);
+            if (entry != null) {
+                mEntries.put(key, entry);
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Stores the validators of a feed response and the data parsed from it. If the
+     * response has no validators, any previous entry for the URL and town is removed.
+     *
+     * @param url          The feed URL
+     * @param etag         The ETag response header value, or null
+     * @param lastModified The Last-Modified response header value, or null
+     * @param town         The town name the data has been parsed with
+     * @param data         The parsed weather data
+     */
+    public synchronized void put(String url, String etag, String lastModified, String town, WeatherData data) {
+        final String key = getKey(url, town);
+        if (data == null || (TextUtils.isEmpty(etag) && TextUtils.isEmpty(lastModified))) {
+            mEntries.remove(key);
+            if (mPreferences != null && mPreferences.contains(key)) {
+                mPreferences.edit().remove(key).apply();
+            }
+            return;
+        }
+
+        final Entry entry = new Entry(etag, lastModified, new WeatherData(data));
+        mEntries.put(key, entry);
+        if (mPreferences != null) {
+            write(key, entry);
+        }
+    }
+
+    /**
+     * Removes all the entries from the cache.
+     */
+    public synchronized void clear() {
+        mEntries.clear();
+        if (mPreferences != null) {
+            mPreferences.edit().clear().apply();
+        }
+    }
+
+    /**
+     * Reads an entry from the permanent storage.
+     *
+     * @param key The entry key
+     * @return Returns the entry, or null if there is no valid one
+     */
+    private Entry read(String key) {
+        final String serialized = mPreferences.getString(key, null);
+        if (serialized == null) {
+            return null;
+        }
+
+        try {
+            final JSONObject json = new JSONObject(serialized);
+            final WeatherData data = WeatherDataCodec.decode(Base64.decode(json.getString(KEY_DATA), Base64.NO_WRAP));
+            if (data != null) {
+                return new Entry(json.optString(KEY_ETAG, null), json.optString(KEY_LAST_MODIFIED, null), data);
+            }
+        } catch (JSONException e) {
+            // Discarded below
+        } catch (IllegalArgumentException e) {
+            // Not Base64, discarded below
+        }
+
+        FLog.w(TAG, "Invalid cached validators for " + key + ", discarding them");
+        mPreferences.edit().remove(key).apply();
+        return null;
+    }
+
+    /**
+     * Writes an entry to the permanent storage. If there's no room for it, the
+     * oldest stored entry is evicted.
+     *
+     * @param key   The entry key
+     * @param entry The entry
+     */
+    private void write(String key, Entry entry) {
+        final JSONObject json = new JSONObject();
+        try {
+            json.put(KEY_TIMESTAMP, System.currentTimeMillis());
+            json.put(KEY_ETAG, entry.mEtag);
+            json.put(KEY_LAST_MODIFIED, entry.mLastModified);
+            json.put(KEY_DATA, Base64.encodeToString(WeatherDataCodec.encode(entry.mData), Base64.NO_WRAP));
+        } catch (JSONException e) {
+            FLog.w(TAG, "Unable to serialize the validators for " + key, e);
+            return;
+        }
+
+        final SharedPreferences.Editor editor = mPreferences.edit();
+        evictOldest(editor, key);
+        editor.putString(key, json.toString()).apply();
+    }
+
+    /**
+     * Removes the oldest stored entry, if there's no room for a new one.
+     */
+    private void evictOldest(SharedPreferences.Editor editor, String newKey) {
+        final Map<String, ?> stored = mPreferences.getAll();
+        if (stored.size() < MAX_ENTRIES || stored.containsKey(newKey)) {
+            return;
+        }
+
+        String oldestKey = null;
+        long oldestTimestamp = Long.MAX_VALUE;
+        for (Map.Entry<String, ?> cached : stored.entrySet()) {
+            long timestamp;
+            try {
+                timestamp = new JSONObject(String.valueOf(cached.getValue())).getLong(KEY_TIMESTAMP);
+            } catch (JSONException e) {
+                timestamp = Long.MIN_VALUE;
+            }
+
+            if (timestamp < oldestTimestamp) {
+                oldestTimestamp = timestamp;
+                oldestKey = cached.getKey();
+            }
+        }
+
+        if (oldestKey != null) {
+            editor.remove(oldestKey);
+        }
+    }
+
+    /**
+     * Builds the key of the entry for a feed URL and a town name.
+     */
+    private static String getKey(String url, String town) {
+        // The feed URLs have no fragment, so this can't clash with another URL
+        return TextUtils.isEmpty(town) ? url : url + '#' + town;
+    }
+
+    /**
+     * A cached feed response. Instances are immutable.
+     */
+    public static class Entry {
+
+        private final String mEtag;
+        private final String mLastModified;
+        private final WeatherData mData;
+
+        private Entry(String etag, String lastModified, WeatherData data) {
+            mEtag = etag;
+            mLastModified = lastModified;
+            mData = data;
+        }
+
+        /**
+         * Sets the conditional request headers for this entry on an exchange.
+         *
+         * @param exchange The exchange to set the headers on
+         */
+        public void applyTo(HttpTransport.Exchange exchange) {
+            if (!TextUtils.isEmpty(mEtag)) {
+                exchange.setRequestHeader("If-None-Match", mEtag);
+            }
+            if (!TextUtils.isEmpty(mLastModified)) {
+                exchange.setRequestHeader("If-Modified-Since", mLastModified);
+            }
+        }
+
+        /**
+         * Returns a copy of the cached weather data.
+         *
+         * @return Returns a copy of the cached weather data
+         */
+        public WeatherData getData() {
+            return new WeatherData(mData);
+        }
+    }
+}
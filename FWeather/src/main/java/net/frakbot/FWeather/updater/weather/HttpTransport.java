@@ -0,0 +1,438 @@
+/*
+ * Copyright 2014 Sebastiano Poggi and Francesco Pontillo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.frakbot.FWeather.updater.weather;
+
+import net.frakbot.FWeather.FWeatherApplication;
+import net.frakbot.util.io.CountingInputStream;
+import net.frakbot.util.log.FLog;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.PushbackInputStream;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.SocketException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Keep-alive HTTP transport used for all the calls to the Yahoo! APIs.
+ * <p/>
+ * The sockets are pooled by the platform's HttpURLConnection implementation;
+ * this class configures the pool (size and idle eviction time), limits the
+ * number of concurrent requests to the same host, and takes care of the
+ * stale pooled connections that the server has closed in the meantime, by
+ * retrying the request once on a fresh connection.
+ * <p/>
+ * Usage: create an {@link Exchange} with {@link #newExchange(String)}, call
+ * {@link Exchange#execute()}, read its {@link Exchange#getInputStream()} and
+ * always {@link Exchange#close()} it when done, so that the connection can be
+ * returned to the pool.
+ * <p/>
+ * Responses are requested gzip or deflate compressed, and decompressed on the fly
+ * while they're read. The transport keeps count of the bytes received on the wire
+ * and of the decoded bytes, to keep track of the savings. The bytes discarded when
+ * closing a response that hasn't been fully read are not counted.
+ *
+ * @author Sebastiano Poggi, Francesco Pontillo
+ */
+public class HttpTransport {
+
+    private static final String TAG = HttpTransport.class.getSimpleName();
+
+    // Maximum number of idle connections kept in the pool
+    private static final int MAX_IDLE_CONNECTIONS = 5;
+    // Idle connections are evicted after this time. It's short on purpose: connections
+    // are only reused within an update pass, and servers drop idle sockets anyway
+    private static final long KEEP_ALIVE_DURATION_MILLIS = 30 * 1000;
+    // Maximum number of concurrent requests to the same host
+    private static final int MAX_REQUESTS_PER_HOST = 4;
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 15 * 1000;
+    private static final int READ_TIMEOUT_MILLIS = 20 * 1000;
+
+    // How many times a request is retried when its (pooled) connection turns out to be stale
+    private static final int MAX_STALE_CONNECTION_RETRIES = 1;
+    // If more than this is left unread in a response, the connection is dropped instead of drained
+    private static final int MAX_DRAIN_BYTES = 8 * 1024;
+
+    private static final String ACCEPTED_ENCODINGS = "gzip, deflate";
+
+    private static final AtomicLong sWireBytesCount = new AtomicLong();
+    private static final AtomicLong sDecodedBytesCount = new AtomicLong();
+
+    private static final Map<String, Semaphore> sHostPermits = new HashMap<String, Semaphore>();
+    private static boolean sPoolConfigured = false;
+
+    private HttpTransport() {
+    }
+
+    /**
+     * Configures the platform HTTP connection pool. It must be called before the
+     * first HTTP connection is opened in the process, since the pool reads its
+     * configuration only once.
+     * This method is idempotent.
+     */
+    public static synchronized void configureConnectionPool() {
+        if (sPoolConfigured) return;
+
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", String.valueOf(MAX_IDLE_CONNECTIONS));
+        System.setProperty("http.keepAliveDuration", String.valueOf(KEEP_ALIVE_DURATION_MILLIS));
+        sPoolConfigured = true;
+
+        FLog.v(TAG, "HTTP connection pool configured. Max idle connections: " + MAX_IDLE_CONNECTIONS +
+                    ", keep-alive duration: " + KEEP_ALIVE_DURATION_MILLIS + " ms");
+    }
+
+    /**
+     * Creates a new (not yet executed) HTTP GET exchange.
+     *
+     * @param url The URL to GET
+     * @return Returns the exchange
+     * @throws IOException If the URL is malformed
+     */
+    public static Exchange newExchange(String url) throws IOException {
+        configureConnectionPool();
+        return new Exchange(new URL(url));
+    }
+
+    /**
+     * Returns the total number of response body bytes received on the wire and
+     * read since the process started. The drained leftovers of the responses are
+     * not counted.
+     *
+     * @return Returns the wire bytes count
+     */
+    public static long getWireBytesCount() {
+        return sWireBytesCount.get();
+    }
+
+    /**
+     * Returns the total number of response body bytes read after decompression
+     * since the process started.
+     *
+     * @return Returns the decoded bytes count
+     */
+    public static long getDecodedBytesCount() {
+        return sDecodedBytesCount.get();
+    }
+
+    private static Semaphore getHostPermits(String host) {
+        synchronized (sHostPermits) {
+            Semaphore permits = sHostPermits.get(host);
+            if (permits == null) {
+                permits = new Semaphore(MAX_REQUESTS_PER_HOST, true);
+                sHostPermits.put(host, permits);
+            }
+            return permits;
+        }
+    }
+
+    /**
+     * Checks if a failed request can be retried on a new connection, that is if
+     * the failure looks like the one of a pooled connection closed by the server.
+     *
+     * @param e The exception the request failed with
+     * @return Returns true if the request can be retried, false otherwise
+     */
+    private static boolean isStaleConnectionFailure(IOException e) {
+        if (e instanceof InterruptedIOException || e instanceof ConnectException) {
+            // Timeouts and connection failures won't get any better by retrying now
+            return false;
+        }
+
+        return e instanceof EOFException || e instanceof SocketException ||
+               (e.getMessage() != null && e.getMessage().contains("unexpected end of stream"));
+    }
+
+    /**
+     * A single HTTP GET request/response exchange.
+     * All the methods must be called from the same thread, with the exception
+     * of {@link #abort()}.
+     */
+    public static class Exchange {
+
+        private final URL mUrl;
+        private final Map<String, String> mRequestHeaders = new LinkedHashMap<String, String>();
+
+        private volatile HttpURLConnection mConnection;
+        private volatile boolean mAborted;
+
+        private Semaphore mHostPermits;
+        private CountingInputStream mWireStream;
+        private CountingInputStream mInputStream;
+        private int mResponseCode = -1;
+
+        private Exchange(URL url) {
+            mUrl = url;
+        }
+
+        /**
+         * Sets a request header. Must be called before {@link #execute()}.
+         *
+         * @param name  The header name
+         * @param value The header value
+         * @return Returns this exchange
+         */
+        public Exchange setRequestHeader(String name, String value) {
+            mRequestHeaders.put(name, value);
+            return this;
+        }
+
+        /**
+         * Sends the request and waits for the response headers. If the request fails
+         * because a pooled connection is stale, it's retried on a new connection.
+         *
+         * @return Returns the HTTP response code
+         * @throws IOException If the request fails, or has been aborted
+         */
+        public int execute() throws IOException {
+            if (mHostPermits == null) {
+                final Semaphore permits = getHostPermits(mUrl.getHost());
+                try {
+                    permits.acquire();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException("Interrupted while waiting for a connection to " +
+                                                     mUrl.getHost());
+                }
+                mHostPermits = permits;
+            }
+
+            for (int attempt = 0; ; attempt++) {
+                checkNotAborted();
+
+                HttpURLConnection connection = openConnection();
+                mConnection = connection;
+                try {
+                    connection.connect();
+                    mResponseCode = connection.getResponseCode();
+                    return mResponseCode;
+                } catch (IOException e) {
+                    connection.disconnect();
+
+                    if (mAborted || attempt >= MAX_STALE_CONNECTION_RETRIES || !isStaleConnectionFailure(e)) {
+                        throw e;
+                    }
+                    FLog.d(TAG, "Stale connection to " + mUrl.getHost() + " (" + e + "), retrying");
+                }
+            }
+        }
+
+        private HttpURLConnection openConnection() throws IOException {
+            HttpURLConnection conn = (HttpURLConnection) mUrl.openConnection();
+            conn.setUseCaches(false);
+            conn.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+            conn.setReadTimeout(READ_TIMEOUT_MILLIS);
+            conn.setRequestProperty("User-Agent", FWeatherApplication.getUserAgent());
+            // Setting this explicitly disables the platform's transparent gzip handling
+            conn.setRequestProperty("Accept-Encoding", ACCEPTED_ENCODINGS);
+            for (Map.Entry<String, String> header : mRequestHeaders.entrySet()) {
+                conn.setRequestProperty(header.getKey(), header.getValue());
+            }
+            return conn;
+        }
+
+        private void checkNotAborted() throws IOException {
+            if (mAborted) {
+                throw new InterruptedIOException("The request to " + mUrl + " has been aborted");
+            }
+        }
+
+        /**
+         * Returns the HTTP response code, as returned by {@link #execute()}.
+         *
+         * @return Returns the response code, or -1 if the exchange hasn't been executed
+         */
+        public int getResponseCode() {
+            return mResponseCode;
+        }
+
+        /**
+         * Returns the value of a response header.
+         *
+         * @param name The header name
+         * @return Returns the header value, or null if the header is not in the response
+         */
+        public String getResponseHeader(String name) {
+            return mConnection != null ? mConnection.getHeaderField(name) : null;
+        }
+
+        /**
+         * Returns the response body stream, decompressed if the server compressed it.
+         * Must be called after {@link #execute()}.
+         *
+         * @return Returns the response body stream
+         * @throws IOException If the stream can't be opened
+         */
+        public InputStream getInputStream() throws IOException {
+            checkNotAborted();
+            if (mInputStream == null) {
+                mWireStream = new CountingInputStream(mConnection.getInputStream());
+
+                final String encoding = mConnection.getContentEncoding();
+                InputStream decoded = mWireStream;
+                if ("gzip".equalsIgnoreCase(encoding)) {
+                    decoded = new GZIPInputStream(mWireStream);
+                } else if ("deflate".equalsIgnoreCase(encoding)) {
+                    decoded = newDeflateInputStream(mWireStream);
+                }
+                mInputStream = new CountingInputStream(decoded);
+            }
+            return mInputStream;
+        }
+
+        /**
+         * Aborts the exchange, closing its connection. Unlike the other methods,
+         * this can be called from any thread.
+         */
+        public void abort() {
+            mAborted = true;
+            final HttpURLConnection connection = mConnection;
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+
+        /**
+         * Closes the exchange. If there's not much left to read in the response, it's
+         * discarded and the connection is returned to the pool; otherwise, the connection
+         * is closed. This method is idempotent.
+         */
+        public void close() {
+            final HttpURLConnection connection = mConnection;
+            // Count what has been read, not what's drained below
+            final long wireBytes = mWireStream != null ? mWireStream.getCount() : 0;
+            try {
+                if (connection != null && !mAborted) {
+                    // Drain the raw stream, there's no point in decoding what's left
+                    InputStream in = mWireStream;
+                    if (in == null) {
+                        in = mResponseCode >= HttpURLConnection.HTTP_BAD_REQUEST ?
+                             connection.getErrorStream() : connection.getInputStream();
+                    }
+
+                    if (in != null && drain(in)) {
+                        if (mInputStream != null) {
+                            mInputStream.close();
+                        } else {
+                            in.close();
+                        }
+                    } else if (in != null) {
+                        connection.disconnect();
+                    }
+                }
+            } catch (IOException e) {
+                // The connection is no good anyway
+                connection.disconnect();
+            } finally {
+                if (mInputStream != null) {
+                    final long decodedBytes = mInputStream.getCount();
+                    sWireBytesCount.addAndGet(wireBytes);
+                    sDecodedBytesCount.addAndGet(decodedBytes);
+                    FLog.v(TAG, "Response from " + mUrl.getHost() + ": " + wireBytes + " bytes on the wire, " +
+                                decodedBytes + " bytes decoded");
+                }
+
+                mInputStream = null;
+                mWireStream = null;
+                mConnection = null;
+                if (mHostPermits != null) {
+                    mHostPermits.release();
+                    mHostPermits = null;
+                }
+            }
+        }
+
+        /**
+         * Wraps a deflate encoded stream with a decoder. The data should be wrapped in
+         * the zlib format, but some servers send raw deflate data: the header of the
+         * data is checked to pick the right decoder.
+         *
+         * @param in The deflate encoded stream
+         * @return Returns the decoded stream
+         * @throws IOException If the header of the data can't be read
+         */
+        private static InputStream newDeflateInputStream(InputStream in) throws IOException {
+            final PushbackInputStream pushback = new PushbackInputStream(in, 2);
+            final byte[] header = new byte[2];
+            int count = 0;
+            int read;
+            while (count < header.length && (read = pushback.read(header, count, header.length - count)) != -1) {
+                count += read;
+            }
+            pushback.unread(header, 0, count);
+
+            if (count == header.length && isZlibHeader(header[0] & 0xFF, header[1] & 0xFF)) {
+                return new InflaterInputStream(pushback);
+            }
+
+            final Inflater inflater = new Inflater(true);
+            return new InflaterInputStream(pushback, inflater) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        // A custom Inflater isn't released by the stream
+                        inflater.end();
+                    }
+                }
+            };
+        }
+
+        /**
+         * Checks if two bytes are a valid zlib header (RFC 1950): the deflate method,
+         * and a check value that makes them a multiple of 31.
+         *
+         * @param cmf The compression method and flags byte
+         * @param flg The flags byte
+         * @return Returns true if the bytes are a zlib header
+         */
+        private static boolean isZlibHeader(int cmf, int flg) {
+            return (cmf & 0x0F) == 8 && ((cmf << 8) | flg) % 31 == 0;
+        }
+
+        /**
+         * Reads and discards what's left of a stream, up to {@link #MAX_DRAIN_BYTES}.
+         *
+         * @param in The stream to drain
+         * @return Returns true if the stream has been fully drained, false otherwise
+         */
+        private static boolean drain(InputStream in) throws IOException {
+            final byte[] buffer = new byte[1024];
+            int drained = 0;
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                drained += read;
+                if (drained > MAX_DRAIN_BYTES) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2014 Sebastiano Poggi and Francesco Pontillo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.frakbot.FWeather.updater.weather;
+
+import net.frakbot.FWeather.R;
+import net.frakbot.global.Const;
+import net.frakbot.util.log.FLog;
+
+import java.util.Random;
+
+/**
+ * Retry policy shared by the calls to the remote endpoints. The failed calls are
+ * retried after an exponentially growing, randomized ("full jitter") delay, and
+ * each endpoint is guarded by a {@link CircuitBreaker}: while it's open, the calls
+ * fail right away without touching the network.
+ */
+public class RetryPolicy {
+
+    private static final String TAG = RetryPolicy.class.getSimpleName();
+
+    private static final Random sRandom = new Random();
+
+    private static final long BASE_DELAY_MILLIS = Const.Thresholds.RETRY_BASE_DELAY * 1000L;
+    private static final long MAX_DELAY_MILLIS = Const.Thresholds.RETRY_MAX_DELAY * 1000L;
+
+    /**
+     * A call to a remote endpoint.
+     *
+     * @param <T> The type of the result of the call
+     */
+    public interface Call<T> {
+        T execute() throws CantGetWeatherException;
+    }
+
+    private RetryPolicy() {
+    }
+
+    /**
+     * Executes a call, retrying it if it fails.
+     *
+     * @param name        The name of the call, for logging
+     * @param breaker     The circuit breaker of the endpoint
+     * @param maxAttempts The maximum number of attempts
+     * @param call        The call
+     * @param <T>         The type of the result of the call
+     * @return Returns the result of the call
+     * @throws CantGetWeatherException If all the attempts failed, if the error can't
+     *                                 be recovered by retrying, or if the circuit is open
+     */
+    public static <T> T execute(String name, CircuitBreaker breaker, int maxAttempts, Call<T> call)
+            throws CantGetWeatherException {
+        CantGetWeatherException lastException = null;
+
+        for (int i = 0; i < maxAttempts; i++) {
+            if (!breaker.allowRequest()) {
+                FLog.w(TAG, String.format("%s skipped: the %s circuit is open", name, breaker.getName()));
+                throw new CantGetWeatherException(false, R.string.no_weather_data,
+                                                  "The " + breaker.getName() + " circuit is open", lastException);
+            }
+
+            T result = null;
+            boolean succeeded = false;
+            try {
+                result = call.execute();
+                succeeded = true;
+            } catch (CantGetWeatherException e) {
+                lastException = e;
+            } finally {
+                // Report unexpected exceptions too, or a half-open circuit would wait for its trial forever
+                if (succeeded) {
+                    breaker.onSuccess();
+                } else {
+                    breaker.onFailure();
+                }
+            }
+
+            if (succeeded) {
+                return result;
+            }
+
+            if (!lastException.isRetryable() || i == maxAttempts - 1) {
+                break;
+            }
+
+            final long delay = getBackoffDelay(i);
+            FLog.w(TAG, String.format("%s attempt number %d has failed. %d attempts remaining, retrying in %d ms.",
+                                      name, i + 1, maxAttempts - i - 1, delay));
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        FLog.e(TAG, String.format("%s has failed. Giving up.", name));
+        throw lastException;
+    }
+
+    /**
+     * Computes the delay before a retry: a random value between 0 and the
+     * exponentially growing upper bound.
+     *
+     * @param attempt The (0-based) number of the failed attempt
+     * @return Returns the delay, in milliseconds
+     */
+    private static long getBackoffDelay(int attempt) {
+        final long bound = Math.min(MAX_DELAY_MILLIS, BASE_DELAY_MILLIS << Math.min(attempt, 16));
+        synchronized (sRandom) {
+            return (long) (sRandom.nextDouble() * bound);
+        }
+    }
+}
@@ -32,25 +32,33 @@
 
 package net.frakbot.FWeather.updater.weather;
 
+import android.content.Context;
 import android.location.Location;
-import android.text.TextUtils;
-import android.util.Pair;
 import net.frakbot.FWeather.FWeatherApplication;
 import net.frakbot.FWeather.R;
+import net.frakbot.FWeather.updater.weather.model.LocationInfo;
+import net.frakbot.FWeather.updater.weather.model.LocationSearchResult;
 import net.frakbot.FWeather.updater.weather.model.WeatherData;
+import net.frakbot.FWeather.updater.weather.parser.PlacesParser;
+import net.frakbot.FWeather.updater.weather.parser.WeatherFeedParser;
+import net.frakbot.FWeather.updater.weather.parser.YahooPlacesParser;
+import net.frakbot.FWeather.updater.weather.parser.YahooWeatherFeedParser;
+import net.frakbot.global.Const;
 import net.frakbot.util.log.FLog;
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 import org.xmlpull.v1.XmlPullParserFactory;
 
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
-import java.net.URL;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Client code for the Yahoo! Weather RSS feeds and GeoPlanet API.
@@ -62,8 +70,20 @@ public class YahooWeatherApiClient {
 
     private static XmlPullParserFactory sXmlPullParserFactory;
 
+    private static final WeatherFeedParser sWeatherFeedParser = new YahooWeatherFeedParser(true);
+    private static final PlacesParser sPlacesParser = new YahooPlacesParser();
+
     private static final int MAX_SEARCH_RESULTS = 10;
 
+    // How many WOEID queries run concurrently, and size of the executor running them
+    private static final int WOEID_FAN_OUT = Const.Thresholds.WOEID_FAN_OUT;
+    private static final long WOEID_THREADS_KEEP_ALIVE_SECONDS = 30;
+
+    private static final ThreadPoolExecutor sWoeidExecutor;
+
+    // Validators and parsed data of the weather feeds, for conditional requests
+    private static final ConditionalGetCache sConditionalGetCache = new ConditionalGetCache();
+
     static {
         try {
             sXmlPullParserFactory = XmlPullParserFactory.newInstance();
@@ -71,6 +91,23 @@ public class YahooWeatherApiClient {
         } catch (XmlPullParserException e) {
             FLog.e(TAG, "Could not instantiate XmlPullParserFactory", e);
         }
+
+        sWoeidExecutor = new ThreadPoolExecutor(WOEID_FAN_OUT, WOEID_FAN_OUT,
+                WOEID_THREADS_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        // Don't keep idle threads around between updates
+        sWoeidExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Makes the state the client keeps between updates persistent, so that it
+     * survives the process being killed. It should be called once, when the
+     * application starts.
+     *
+     * @param context The current {@link Context}.
+     */
+    public static void init(Context context) {
+        sConditionalGetCache.setPersistent(context.getApplicationContext());
     }
 
     public static void setWeatherUnits(String weatherUnits) {
@@ -79,14 +116,16 @@ public class YahooWeatherApiClient {
 
     public static WeatherData getWeatherForLocationInfo(LocationInfo locationInfo)
             throws CantGetWeatherException {
+        if (WOEID_FAN_OUT > 1 && locationInfo.woeids.size() > 1) {
+            return getWeatherForLocationInfoConcurrently(locationInfo, WOEID_FAN_OUT);
+        }
+
         // Loop through the woeids (they're in descending precision order) until weather data
         // is found.
         for (String woeid : locationInfo.woeids) {
             FLog.d(TAG, "Trying WOEID: " + woeid);
             WeatherData data = YahooWeatherApiClient.getWeatherForWoeid(woeid, locationInfo.town);
-            if (data != null
-                    && data.conditionCode != WeatherData.INVALID_CONDITION
-                    && data.temperature != WeatherData.INVALID_TEMPERATURE) {
+            if (isValidWeatherData(data)) {
                 return data;
             }
         }
@@ -95,172 +134,95 @@ public class YahooWeatherApiClient {
         throw new CantGetWeatherException(true, R.string.no_weather_data);
     }
 
-    public static WeatherData getWeatherForWoeid(String woeid, String town)
+    /**
+     * Queries the WOEIDs of a location keeping up to fanOut queries in flight, and
+     * returns the valid weather data of the most precise WOEID. The WOEIDs are in
+     * descending precision order: as soon as a WOEID returns valid data, all the
+     * queries for the less precise ones are cancelled. When a query fails, the next
+     * WOEID in the list is queried in its place.
+     *
+     * @param locationInfo The location info
+     * @param fanOut       The maximum number of concurrent queries
+     * @return Returns the weather data of the most precise WOEID that has valid data
+     * @throws CantGetWeatherException If no WOEID has valid weather data
+     */
+    private static WeatherData getWeatherForLocationInfoConcurrently(LocationInfo locationInfo, int fanOut)
             throws CantGetWeatherException {
-        HttpURLConnection connection = null;
-        try {
-            connection = openUrlConnection(buildWeatherQueryUrl(woeid));
-            XmlPullParser xpp = sXmlPullParserFactory.newPullParser();
-            xpp.setInput(new InputStreamReader(connection.getInputStream()));
-
-            WeatherData data = new WeatherData();
-            boolean hasTodayForecast = false;
-            int eventType = xpp.getEventType();
-            while (eventType != XmlPullParser.END_DOCUMENT) {
-                if (eventType == XmlPullParser.START_TAG
-                        && "condition".equals(xpp.getName())) {
-                    for (int i = xpp.getAttributeCount() - 1; i >= 0; i--) {
-                        if ("temp".equals(xpp.getAttributeName(i))) {
-                            data.temperature = Integer.parseInt(xpp.getAttributeValue(i));
-                        } else if ("code".equals(xpp.getAttributeName(i))) {
-                            data.conditionCode = Integer.parseInt(xpp.getAttributeValue(i));
-                        } else if ("text".equals(xpp.getAttributeName(i))) {
-                            data.conditionText = xpp.getAttributeValue(i);
-                        }
-                    }
-                } else if (eventType == XmlPullParser.START_TAG
-                        && "forecast".equals(xpp.getName())
-                        && !hasTodayForecast) {
-                    // TODO: verify this is the forecast for today (this currently assumes the
-                    // first forecast is today's forecast)
-                    hasTodayForecast = true;
-                    for (int i = xpp.getAttributeCount() - 1; i >= 0; i--) {
-                        if ("code".equals(xpp.getAttributeName(i))) {
-                            data.todayForecastConditionCode
-                                    = Integer.parseInt(xpp.getAttributeValue(i));
-                        } else if ("low".equals(xpp.getAttributeName(i))) {
-                            data.low = Integer.parseInt(xpp.getAttributeValue(i));
-                        } else if ("high".equals(xpp.getAttributeName(i))) {
-                            data.high = Integer.parseInt(xpp.getAttributeValue(i));
-                        } else if ("text".equals(xpp.getAttributeName(i))) {
-                            data.forecastText = xpp.getAttributeValue(i);
-                        }
-                    }
-                } else if (eventType == XmlPullParser.START_TAG
-                        && "location".equals(xpp.getName())) {
-                    String cityOrVillage = "--";
-                    String region = null;
-                    String country = "--";
-                    for (int i = xpp.getAttributeCount() - 1; i >= 0; i--) {
-                        if ("city".equals(xpp.getAttributeName(i))) {
-                            cityOrVillage = xpp.getAttributeValue(i);
-                        } else if ("region".equals(xpp.getAttributeName(i))) {
-                            region = xpp.getAttributeValue(i);
-                        } else if ("country".equals(xpp.getAttributeName(i))) {
-                            country = xpp.getAttributeValue(i);
-                        }
-                    }
+        final int woeidsCount = locationInfo.woeids.size();
+        final WoeidQuery[] queries = new WoeidQuery[woeidsCount];
+        @SuppressWarnings("unchecked")
+        final Future<WeatherData>[] futures = new Future[woeidsCount];
 
-                    if (TextUtils.isEmpty(region)) {
-                        // If no region is available, show the country. Otherwise, don't
-                        // show country information.
-                        region = country;
-                    }
+        int submitted = 0;
+        CantGetWeatherException lastException = null;
+        try {
+            for (; submitted < Math.min(fanOut, woeidsCount); submitted++) {
+                queries[submitted] = new WoeidQuery(locationInfo.woeids.get(submitted), locationInfo.town);
+                futures[submitted] = sWoeidExecutor.submit(queries[submitted]);
+            }
 
-                    if (!TextUtils.isEmpty(town) && !town.equals(cityOrVillage)) {
-                        // If a town is available and it's not equivalent to the city name,
-                        // show it.
-                        cityOrVillage = cityOrVillage + ", " + town;
+            for (int i = 0; i < woeidsCount; i++) {
+                WeatherData data = null;
+                try {
+                    data = futures[i].get();
+                } catch (ExecutionException e) {
+                    final Throwable cause = e.getCause();
+                    if (cause instanceof CantGetWeatherException) {
+                        lastException = (CantGetWeatherException) cause;
                     }
+                    FLog.d(TAG, "Query for WOEID " + queries[i].mWoeid + " failed: " + cause);
+                }
 
-                    data.location = cityOrVillage + ", " + region;
+                if (isValidWeatherData(data)) {
+                    FLog.d(TAG, "Got weather data for WOEID: " + queries[i].mWoeid);
+                    return data;
                 }
-                eventType = xpp.next();
-            }
 
-            if (TextUtils.isEmpty(data.location)) {
-                data.location = town;
+                // Keep the pipeline full with the next less precise WOEID
+                if (submitted < woeidsCount) {
+                    queries[submitted] = new WoeidQuery(locationInfo.woeids.get(submitted), locationInfo.town);
+                    futures[submitted] = sWoeidExecutor.submit(queries[submitted]);
+                    submitted++;
+                }
             }
-
-            return data;
-
-        } catch (IOException e) {
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             throw new CantGetWeatherException(true, R.string.no_weather_data,
-                    "Error parsing weather feed XML.", e);
-        } catch (NumberFormatException e) {
-            throw new CantGetWeatherException(true, R.string.no_weather_data,
-                    "Error parsing weather feed XML.", e);
-        } catch (XmlPullParserException e) {
-            throw new CantGetWeatherException(true, R.string.no_weather_data,
-                    "Error parsing weather feed XML.", e);
+                    "Interrupted while waiting for weather data.", e);
         } finally {
-            if (connection != null) {
-                connection.disconnect();
+            // Cancel whatever is still running (does nothing on completed queries)
+            for (int i = 0; i < submitted; i++) {
+                futures[i].cancel(true);
+                queries[i].cancel();
             }
         }
+
+        // No weather could be found :(
+        if (lastException != null) {
+            throw lastException;
+        }
+        throw new CantGetWeatherException(true, R.string.no_weather_data);
     }
 
-    public static LocationInfo getLocationInfo(Location location) throws CantGetWeatherException {
-        LocationInfo li = new LocationInfo();
+    private static boolean isValidWeatherData(WeatherData data) {
+        return data != null
+                && data.conditionCode != WeatherData.INVALID_CONDITION
+                && data.temperature != WeatherData.INVALID_TEMPERATURE;
+    }
 
-        // first=tagname (admin1, locality3) second=woeid
-        String primaryWoeid = null;
-        List<Pair<String,String>> alternateWoeids = new ArrayList<Pair<String, String>>();
+    public static WeatherData getWeatherForWoeid(String woeid, String town)
+            throws CantGetWeatherException {
+        return new WoeidQuery(woeid, town).call();
+    }
 
-        HttpURLConnection connection = null;
+    public static LocationInfo getLocationInfo(Location location) throws CantGetWeatherException {
+        HttpTransport.Exchange exchange = null;
         try {
-            connection = openUrlConnection(buildPlaceSearchUrl(location));
+            exchange = openExchange(buildPlaceSearchUrl(location));
             XmlPullParser xpp = sXmlPullParserFactory.newPullParser();
-            xpp.setInput(new InputStreamReader(connection.getInputStream()));
-
-            boolean inWoe = false;
-            boolean inTown = false;
-            int eventType = xpp.getEventType();
-
-            while (eventType != XmlPullParser.END_DOCUMENT) {
-                String tagName = xpp.getName();
-
-                if (eventType == XmlPullParser.START_TAG && "woeid".equals(tagName)) {
-                    inWoe = true;
-                } else if (eventType == XmlPullParser.TEXT && inWoe) {
-                    primaryWoeid = xpp.getText();
-                }
-
-                if (eventType == XmlPullParser.START_TAG &&
-                        (tagName.startsWith("locality") || tagName.startsWith("admin"))) {
-                    for (int i = xpp.getAttributeCount() - 1; i >= 0; i--) {
-                        String attrName = xpp.getAttributeName(i);
-                        if ("type".equals(attrName)
-                                && "Town".equals(xpp.getAttributeValue(i))) {
-                            inTown = true;
-                        } else if ("woeid".equals(attrName)) {
-                            String woeid = xpp.getAttributeValue(i);
-                            if (!TextUtils.isEmpty(woeid)) {
-                                alternateWoeids.add(
-                                        new Pair<String, String>(tagName, woeid));
-                            }
-                        }
-                    }
-                } else if (eventType == XmlPullParser.TEXT && inTown) {
-                    li.town = xpp.getText();
-                }
-
-                if (eventType == XmlPullParser.END_TAG) {
-                    inWoe = false;
-                    inTown = false;
-                }
-
-                eventType = xpp.next();
-            }
-
-            // Add the primary woeid if it was found.
-            if (!TextUtils.isEmpty(primaryWoeid)) {
-                li.woeids.add(primaryWoeid);
-            }
-
-            // Sort by descending tag name to order by decreasing precision
-            // (locality3, locality2, locality1, admin3, admin2, admin1, etc.)
-            Collections.sort(alternateWoeids, new Comparator<Pair<String, String>>() {
-                @Override
-                public int compare(Pair<String, String> pair1, Pair<String, String> pair2) {
-                    return pair1.first.compareTo(pair2.first);
-                }
-            });
-
-            for (Pair<String, String> pair : alternateWoeids) {
-                li.woeids.add(pair.second);
-            }
+            xpp.setInput(exchange.getInputStream(), null);
 
+            LocationInfo li = sPlacesParser.parseLocationInfo(xpp);
             if (li.woeids.size() > 0) {
                 return li;
             }
@@ -275,138 +237,140 @@ public class YahooWeatherApiClient {
             throw new CantGetWeatherException(true, R.string.no_weather_data,
                     "Error parsing place search XML", e);
         } finally {
-            if (connection != null) {
-                connection.disconnect();
+            if (exchange != null) {
+                exchange.close();
             }
         }
     }
 
-    public static HttpURLConnection openUrlConnection(String url) throws IOException {
-        HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
-        conn.setUseCaches(false);
-        conn.setChunkedStreamingMode(0);
-        conn.setRequestProperty("connection", "close");    // Disable keep-alive because of issues with it
-        conn.setRequestProperty("User-Agent", FWeatherApplication.getUserAgent());
-        conn.connect();
-        return conn;
+    /**
+     * Opens a keep-alive HTTP GET exchange and checks the response code.
+     * The returned exchange must always be closed, so its connection can be reused.
+     */
+    private static HttpTransport.Exchange openExchange(String url) throws IOException {
+        HttpTransport.Exchange exchange = HttpTransport.newExchange(url);
+        try {
+            executeExchange(exchange);
+        } catch (IOException e) {
+            exchange.close();
+            throw e;
+        }
+        return exchange;
     }
 
-    private static final int PARSE_STATE_NONE = 0;
-    private static final int PARSE_STATE_PLACE = 1;
-    private static final int PARSE_STATE_WOEID = 2;
-    private static final int PARSE_STATE_NAME = 3;
-    private static final int PARSE_STATE_COUNTRY = 4;
-    private static final int PARSE_STATE_ADMIN1 = 5;
+    private static void executeExchange(HttpTransport.Exchange exchange) throws IOException {
+        final int responseCode = exchange.execute();
+        if (responseCode != HttpURLConnection.HTTP_OK) {
+            throw new IOException("Unexpected HTTP response code " + responseCode);
+        }
+    }
 
     public static List<LocationSearchResult> findLocationsAutocomplete(String startsWith) {
         FLog.d(TAG, "Autocompleting locations starting with '" + startsWith + "'");
 
         List<LocationSearchResult> results = new ArrayList<LocationSearchResult>();
 
-        HttpURLConnection connection = null;
+        HttpTransport.Exchange exchange = null;
         try {
-            connection = openUrlConnection(buildPlaceSearchStartsWithUrl(startsWith));
+            exchange = openExchange(buildPlaceSearchStartsWithUrl(startsWith));
             XmlPullParser xpp = sXmlPullParserFactory.newPullParser();
-            xpp.setInput(new InputStreamReader(connection.getInputStream()));
-
-            LocationSearchResult result = null;
-            String name = null, country = null, admin1 = null;
-            StringBuilder sb = new StringBuilder();
-
-            int state = PARSE_STATE_NONE;
-            int eventType = xpp.getEventType();
-            while (eventType != XmlPullParser.END_DOCUMENT) {
-                String tagName = xpp.getName();
-
-                if (eventType == XmlPullParser.START_TAG) {
-                    switch (state) {
-                        case PARSE_STATE_NONE:
-                            if ("place".equals(tagName)) {
-                                state = PARSE_STATE_PLACE;
-                                result = new LocationSearchResult();
-                                name = country = admin1 = null;
-                            }
-                            break;
-
-                        case PARSE_STATE_PLACE:
-                            if ("name".equals(tagName)) {
-                                state = PARSE_STATE_NAME;
-                            } else if ("woeid".equals(tagName)) {
-                                state = PARSE_STATE_WOEID;
-                            } else if ("country".equals(tagName)) {
-                                state = PARSE_STATE_COUNTRY;
-                            } else if ("admin1".equals(tagName)) {
-                                state = PARSE_STATE_ADMIN1;
-                            }
-                            break;
-                    }
+            xpp.setInput(exchange.getInputStream(), null);
 
-                } else if (eventType == XmlPullParser.TEXT) {
-                    switch (state) {
-                        case PARSE_STATE_WOEID:
-                            result.woeid = xpp.getText();
-                            break;
-
-                        case PARSE_STATE_NAME:
-                            name = xpp.getText();
-                            break;
-
-                        case PARSE_STATE_COUNTRY:
-                            country = xpp.getText();
-                            break;
-
-                        case PARSE_STATE_ADMIN1:
-                            admin1 = xpp.getText();
-                            break;
-                    }
-
-                } else if (eventType == XmlPullParser.END_TAG) {
-                    if ("place".equals(tagName)) {
-//                        // Sort by descending tag name to order by decreasing precision
-//                        // (locality3, locality2, locality1, admin3, admin2, admin1, etc.)
-//                        Collections.sort(alternateWoeids, new Comparator<Pair<String, String>>() {
-//                            @Override
-//                            public int compare(Pair<String, String> pair1,
-//                                    Pair<String, String> pair2) {
-//                                return pair1.first.compareTo(pair2.first);
-//                            }
-//                        });
-                        sb.setLength(0);
-                        if (!TextUtils.isEmpty(name)) {
-                            sb.append(name);
-                        }
-                        if (!TextUtils.isEmpty(admin1)) {
-                            if (sb.length() > 0) {
-                                sb.append(", ");
-                            }
-                            sb.append(admin1);
-                        }
-                        result.displayName = sb.toString();
-                        result.country = country;
-                        results.add(result);
-                        state = PARSE_STATE_NONE;
-
-                    } else if (state != PARSE_STATE_NONE) {
-                        state = PARSE_STATE_PLACE;
-                    }
-                }
-
-                eventType = xpp.next();
-            }
+            sPlacesParser.parseSearchResults(xpp, results);
 
         } catch (IOException e) {
             FLog.w(TAG, "Error parsing place search XML");
         } catch (XmlPullParserException e) {
             FLog.w(TAG, "Error parsing place search XML");
         } finally {
-            if (connection != null) {
-                connection.disconnect();
+            if (exchange != null) {
+                exchange.close();
             }
         }
 
         return results;
     }
 
+    /**
+     * A weather feed query for a single WOEID, that can be cancelled from another
+     * thread while it's running.
+     */
+    private static class WoeidQuery implements Callable<WeatherData> {
+
+        private final String mWoeid;
+        private final String mTown;
+
+        private volatile HttpTransport.Exchange mExchange;
+        private volatile boolean mCancelled;
+
+        private WoeidQuery(String woeid, String town) {
+            mWoeid = woeid;
+            mTown = town;
+        }
+
+        @Override
+        public WeatherData call() throws CantGetWeatherException {
+            HttpTransport.Exchange exchange = null;
+            try {
+                final String url = buildWeatherQueryUrl(mWoeid);
+                final ConditionalGetCache.Entry cached = sConditionalGetCache.get(url, mTown);
+
+                exchange = HttpTransport.newExchange(url);
+                if (cached != null) {
+                    cached.applyTo(exchange);
+                }
+                mExchange = exchange;
+                if (mCancelled) {
+                    // Cancelled before the exchange was published
+                    exchange.abort();
+                }
+
+                final int responseCode = exchange.execute();
+                if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+                    FLog.d(TAG, "Weather feed for WOEID " + mWoeid + " not modified, reusing parsed data");
+                    return cached.getData();
+                }
+                if (responseCode != HttpURLConnection.HTTP_OK) {
+                    throw new IOException("Unexpected HTTP response code " + responseCode);
+                }
+
+                XmlPullParser xpp = sXmlPullParserFactory.newPullParser();
+                xpp.setInput(exchange.getInputStream(), null);
+
+                WeatherData data = sWeatherFeedParser.parseWeather(xpp, mTown);
+                data.woeid = mWoeid;
+                sConditionalGetCache.put(url, exchange.getResponseHeader("ETag"),
+                                         exchange.getResponseHeader("Last-Modified"), mTown, data);
+                return data;
+
+            } catch (IOException e) {
+                throw new CantGetWeatherException(true, R.string.no_weather_data,
+                        "Error parsing weather feed XML.", e);
+            } catch (NumberFormatException e) {
+                throw new CantGetWeatherException(true, R.string.no_weather_data,
+                        "Error parsing weather feed XML.", e);
+            } catch (XmlPullParserException e) {
+                throw new CantGetWeatherException(true, R.string.no_weather_data,
+                        "Error parsing weather feed XML.", e);
+            } finally {
+                if (exchange != null) {
+                    exchange.close();
+                }
+            }
+        }
+
+        /**
+         * Cancels the query, aborting its HTTP exchange if it's running.
+         */
+        private void cancel() {
+            mCancelled = true;
+            final HttpTransport.Exchange exchange = mExchange;
+            if (exchange != null) {
+                exchange.abort();
+            }
+        }
+    }
+
     private static String buildWeatherQueryUrl(String woeid) {
         // http://developer.yahoo.com/weather/
         return "http://weather.yahooapis.com/forecastrss?w=" + woeid + "&u=" + sWeatherUnits;
@@ -426,17 +390,4 @@ public class YahooWeatherApiClient {
                 + "count=" + MAX_SEARCH_RESULTS
                 + "?appid=" + FWeatherApplication.getApiKey();
     }
-
-    public static class LocationInfo {
-        // Sorted by decreasing precision
-        // (point of interest, locality3, locality2, locality1, admin3, admin2, admin1, etc.)
-        public List<String> woeids = new ArrayList<String>();
-        String town;
-    }
-
-    public static class LocationSearchResult {
-        public String woeid;
-        public String displayName;
-        public String country;
-    }
-}
\ No newline at end of file
+}
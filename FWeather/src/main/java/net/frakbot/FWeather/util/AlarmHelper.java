@@ -16,12 +16,17 @@
 
 package net.frakbot.FWeather.util;
 
+import android.annotation.TargetApi;
 import android.app.AlarmManager;
 import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.SharedPreferences;
+import android.os.BatteryManager;
+import android.os.Build;
 import android.preference.PreferenceManager;
+import net.frakbot.FWeather.updater.weather.model.WeatherData;
 import net.frakbot.global.Const;
 import net.frakbot.util.log.FLog;
 
@@ -29,18 +34,48 @@ import java.util.Calendar;
 
 /**
  * Helper class with convenience methods for managing the update alarm.
+ * <p/>
+ * The update interval adapts to the circumstances: the user-selected sync
+ * frequency is the shortest interval used, and it's stretched when the
+ * latest fetches returned the same conditions, at night and on low battery.
+ * When the conditions change, it's brought back to the user setting. The
+ * alarms are inexact, so that the system can batch them with other wakeups.
  *
  * @author Francesco Pontillo
  */
 public class AlarmHelper {
     private static final String TAG = AlarmHelper.class.getSimpleName();
 
+    private static final String PREFS_NAME = "sync_scheduler";
+    private static final String KEY_CONDITIONS = "conditions";
+    private static final String KEY_STABLE_STREAK = "stable_streak";
+
+    // Each fetch returning the same conditions doubles the interval, up to this many times
+    private static final int MAX_STABLE_STREAK = 2;
+    private static final int NIGHT_START_HOUR = 0;
+    private static final int NIGHT_END_HOUR = 6;
+
+    /**
+     * Records the weather that has just been fetched from the network, to track
+     * how fast the conditions are changing. Don't call this for cached weather,
+     * or it would be counted as a fetch that returned the same conditions.
+     *
+     * @param context The given Context
+     * @param weather The weather that has just been fetched (can be null)
+     */
+    public static void recordFetchedWeather(Context context, WeatherData weather) {
+        if (weather != null && weather.conditionCode >= 0) {
+            recordConditions(context, weather);
+        }
+    }
+
     /**
      * Reads the current alarm rate, deletes all pending alarms
-     * and reschedule the given Intent for launch.t
+     * and reschedule the given Intent for launch.
      *
      * @param context The given Context
      */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
     public static void rescheduleAlarm(Context context) {
         // Get the update rate from preferences
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
@@ -53,11 +88,10 @@ public class AlarmHelper {
             return;
         }
 
-        Calendar calendar = Calendar.getInstance();
-        calendar.setTimeInMillis(System.currentTimeMillis());
-        calendar.add(Calendar.SECOND, value);
+        final long interval = getAdaptiveInterval(context, value);
+        final long triggerAtMillis = System.currentTimeMillis() + interval * 1000L;
 
-        FLog.d(context, TAG, "Rescheduling FWeather update in " + Integer.toString(value) + " seconds...");
+        FLog.d(context, TAG, "Rescheduling FWeather update in " + Long.toString(interval) + " seconds...");
 
         // Delete all previous alarms
         deleteAlarms(context);
@@ -65,10 +99,88 @@ public class AlarmHelper {
         // Get the AlarmManager instance
         AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
 
-        // Schedule the alarm (not repeating)
-        alarmManager.set(AlarmManager.RTC, calendar.getTimeInMillis(), getUpdateIntent(context));
+        // Schedule the alarm (not repeating), letting the system delay it to batch it with other alarms
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            alarmManager.setWindow(AlarmManager.RTC, triggerAtMillis, interval * 1000L / 4, getUpdateIntent(context));
+        } else {
+            alarmManager.set(AlarmManager.RTC, triggerAtMillis, getUpdateIntent(context));
+        }
+
+        FLog.d(context, TAG, "FWeather update scheduled in " + Long.toString(interval) + " seconds");
+    }
+
+    /**
+     * Computes the interval until the next update.
+     *
+     * @param context           The given Context
+     * @param syncFrequencySecs The user-selected sync frequency, in seconds
+     * @return Returns the interval until the next update, in seconds
+     */
+    private static long getAdaptiveInterval(Context context, int syncFrequencySecs) {
+        final SharedPreferences state = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        int multiplier = 1 << Math.min(state.getInt(KEY_STABLE_STREAK, 0), MAX_STABLE_STREAK);
+
+        if (isNight()) {
+            multiplier *= 2;
+        }
+
+        if (isBatteryLow(context)) {
+            multiplier *= 2;
+        }
+
+        // Never go below the user setting, nor stretch it past the limit
+        final long maxInterval = Math.max(syncFrequencySecs, Const.Thresholds.SYNC_MAX_ADAPTIVE_INTERVAL);
+        final long interval = Math.min((long) syncFrequencySecs * multiplier, maxInterval);
+
+        if (multiplier > 1) {
+            FLog.v(TAG, "Sync interval stretched from " + syncFrequencySecs + " to " + interval + " seconds");
+        }
+        return interval;
+    }
+
+    /**
+     * Updates the count of consecutive fetches that returned the same conditions.
+     *
+     * @param context The given Context
+     * @param weather The weather that has just been fetched
+     */
+    private static void recordConditions(Context context, WeatherData weather) {
+        final SharedPreferences state = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        final String conditions = weather.conditionCode + "|" + weather.temperature + "|" +
+                                  weather.todayForecastConditionCode;
+
+        int streak = 0;
+        if (conditions.equals(state.getString(KEY_CONDITIONS, null))) {
+            streak = Math.min(state.getInt(KEY_STABLE_STREAK, 0) + 1, MAX_STABLE_STREAK);
+        }
+
+        state.edit()
+             .putString(KEY_CONDITIONS, conditions)
+             .putInt(KEY_STABLE_STREAK, streak)
+             .commit();
+    }
+
+    private static boolean isNight() {
+        final int hour = Calendar.getInstance().get(Calendar.HOUR_OF_DAY);
+        return hour >= NIGHT_START_HOUR && hour < NIGHT_END_HOUR;
+    }
+
+    private static boolean isBatteryLow(Context context) {
+        // The battery status is a sticky broadcast: this doesn't register anything
+        final Intent battery = context.getApplicationContext()
+                .registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (battery == null) {
+            return false;
+        }
+
+        final int status = battery.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+        if (status == BatteryManager.BATTERY_STATUS_CHARGING || status == BatteryManager.BATTERY_STATUS_FULL) {
+            return false;
+        }
 
-        FLog.d(context, TAG, "FWeather update scheduled in " + Integer.toString(value) + " seconds");
+        final int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        final int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+        return level >= 0 && scale > 0 && level * 100 / scale <= Const.Thresholds.SYNC_LOW_BATTERY_PERCENT;
     }
 
     /**
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2014 Sebastiano Poggi and Francesco Pontillo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.frakbot.FWeather.util;
+
+import android.location.Location;
+import android.os.SystemClock;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The pending result of a location request made to the {@link LocationHelper}.
+ * <p/>
+ * The future completes with the location as soon as one is available, or with
+ * null when its deadline passes; its result can be waited for with {@link #get()}.
+ * Any number of threads can wait on the same future.
+ * This class is thread safe.
+ */
+public class LocationFuture implements Future<Location> {
+
+    private final long mDeadline;
+    private final CountDownLatch mLatch = new CountDownLatch(1);
+
+    private boolean mDone;
+    private boolean mCancelled;
+    private Location mLocation;
+
+    /**
+     * Creates a pending location request.
+     *
+     * @param timeoutMillis How long to wait for a location, in milliseconds
+     */
+    LocationFuture(long timeoutMillis) {
+        mDeadline = SystemClock.elapsedRealtime() + timeoutMillis;
+    }
+
+    /**
+     * Completes the request, if it's not complete yet.
+     *
+     * @param location The location, or null if there is none
+     * @return Returns true if the request has been completed by this call
+     */
+    boolean complete(Location location) {
+        return complete(location, false);
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return complete(null, true);
+    }
+
+    private boolean complete(Location location, boolean cancelled) {
+        synchronized (this) {
+            if (mDone) {
+                return false;
+            }
+            mDone = true;
+            mCancelled = cancelled;
+            mLocation = location;
+        }
+
+        mLatch.countDown();
+        return true;
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return mCancelled;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return mDone;
+    }
+
+    /**
+     * Waits for the request to complete, at most until its deadline.
+     *
+     * @return Returns the location, or null if none was available before the
+     * deadline, or if the request has been cancelled
+     * @throws InterruptedException If the thread is interrupted while waiting
+     */
+    @Override
+    public Location get() throws InterruptedException {
+        final long remaining = mDeadline - SystemClock.elapsedRealtime();
+        if (remaining > 0) {
+            mLatch.await(remaining, TimeUnit.MILLISECONDS);
+        }
+
+        synchronized (this) {
+            return mLocation;
+        }
+    }
+
+    @Override
+    public Location get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+        if (!mLatch.await(timeout, unit)) {
+            throw new TimeoutException("No location available yet");
+        }
+
+        synchronized (this) {
+            return mLocation;
+        }
+    }
+}
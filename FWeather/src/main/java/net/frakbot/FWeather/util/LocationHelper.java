@@ -18,7 +18,7 @@ package net.frakbot.FWeather.util;
 
 import android.app.PendingIntent;
 import android.content.Context;
-import android.content.IntentSender;
+import android.content.Intent;
 import android.content.SharedPreferences;
 import android.location.Criteria;
 import android.location.Location;
@@ -26,25 +26,52 @@ import android.location.LocationManager;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Looper;
+import android.os.Process;
 import android.preference.PreferenceManager;
 import android.provider.Settings;
 import android.text.TextUtils;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GooglePlayServicesClient;
 import com.google.android.gms.common.GooglePlayServicesUtil;
+import com.google.android.gms.location.Geofence;
 import com.google.android.gms.location.LocationClient;
 import com.google.android.gms.location.LocationRequest;
+import com.google.android.gms.location.LocationStatusCodes;
+import net.frakbot.FWeather.receiver.GeofenceBroadcastReceiver;
 import net.frakbot.global.Const;
 import net.frakbot.util.log.FLog;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
 /**
  * Location helper class, takes care of abstracting the location modules.
  * How to use:
  * 1.   Initialize with LocationHelper.init()
- * 2.   Get the last known location with LocationHelper.getLastKnownSurroundings(pendingIntent)
- *      The pendingIntent, if not null, will be called when the first location is retrieved
- *      iif the returned location is null.
+ * 2.   Request the location with LocationHelper.getLocationAsync(timeoutMillis)
+ *      The returned {@link LocationFuture} completes right away if a location is available,
+ *      otherwise as soon as the first location is retrieved, or with null when the timeout
+ *      expires. Any number of requests can be pending at the same time.
+ *
+ * The last known location is saved, and restored when the LocationHelper is initialized,
+ * so that the first updates after a cold start don't have to wait for the location
+ * provider to connect, as long as that location isn't too old.
+ *
+ * When the geofence mode is enabled, a geofence (or a proximity alert, without the Play
+ * Services) is registered around the location the current weather was resolved for, with
+ * {@link #updateGeofence(Location)}. While it's armed, the location isn't polled anymore:
+ * a fresh location is requested only when the device leaves the area, and the widgets are
+ * updated as soon as it's available.
+ *
+ * Threading: the location modules (the LocationClient, the LocationManager, their listeners
+ * and the timeouts) are owned by a dedicated looper thread, and are only ever touched from it;
+ * the public methods post to it whatever they need to do with them. The state read by the
+ * other threads is either volatile (the connection flags) or guarded by the location lock
+ * (the last known location, the pending requests and the geofence).
  *
  * @author Francesco Pontillo
  */
@@ -52,19 +79,28 @@ public class LocationHelper {
 
     private static final String TAG = LocationHelper.class.getSimpleName();
 
-    private static boolean isInitialized;
-    private static Context mContext;
-    private static Handler mHandler = new Handler();
-    private static boolean hasPlayServices;
+    // Set once by init(), before isInitialized: reading isInitialized first makes them visible
+    private static volatile boolean isInitialized;
+    private static volatile Context mContext;
+    private static volatile Handler mHandler;
+    private static volatile boolean hasPlayServices;
+    private static volatile boolean isConnected;
 
+    // Owned by the location thread
     private static LocationClient mLocationClient;
     private static LocationManager mLocationManager;
-    private static boolean isConnected;
+    private static String mLocationProvider;
 
     private static final LocationHelper _instance = new LocationHelper();
 
-    private static PendingIntent mPendingIntent;
-    private static Location lastKnownSurroundings; // EITS for the win
+    // Guards the pending location requests and the last known location updates
+    private static final Object sLocationLock = new Object();
+    private static final List<LocationFuture> sPendingRequests = new ArrayList<LocationFuture>();
+    // True if a location request expired, so the widgets must be updated when a location arrives
+    private static boolean sMissedRequests;
+    private static volatile Location lastKnownSurroundings; // EITS for the win
+
+    // Owned by the location thread
     private static LocationClientListener mLocationClientListener;
     private static LocationManagerListener mLocationManagerListener;
 
@@ -74,6 +110,33 @@ public class LocationHelper {
     private final TimeoutRunnable mTimeoutRunnable = new TimeoutRunnable();
     private static final int UPDATE_TIMEOUT_MILLIS = 60000;
 
+    private static final String PREFS_NAME = "last_location";
+    private static final String KEY_PROVIDER = "provider";
+    private static final String KEY_LATITUDE = "lat";
+    private static final String KEY_LONGITUDE = "lon";
+    private static final String KEY_ACCURACY = "accuracy";
+    private static final String KEY_TIME = "time";
+
+    // Keep a strong reference: the SharedPreferences only hold weak references to their listeners
+    private static final SharedPreferences.OnSharedPreferenceChangeListener sPreferenceListener =
+        new SharedPreferences.OnSharedPreferenceChangeListener() {
+            @Override
+            public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+                if (Const.Preferences.SYNC_GEOFENCE.equals(key) && !isGeofencingEnabled()) {
+                    // The geofence is armed again on the next weather update, if the mode is turned back on
+                    FLog.d(TAG, "Geofence mode disabled, removing the geofence");
+                    disarmGeofence();
+                }
+            }
+        };
+
+    private static final long LAST_LOCATION_MAX_AGE_MILLIS = Const.Thresholds.LAST_LOCATION_MAX_AGE * 1000L;
+
+    public static final String ACTION_GEOFENCE_TRANSITION = "net.frakbot.FWeather.action.GEOFENCE_TRANSITION";
+    private static final String GEOFENCE_REQUEST_ID = "weather_location";
+    // The center of the armed geofence, or null if there is none; guarded by the location lock
+    private static Location sGeofenceCenter;
+
     static {
         isInitialized = false;
         isConnected = false;
@@ -82,26 +145,51 @@ public class LocationHelper {
     }
 
     /**
-     * Initializes the LocationHelper with a given context.
-     * This method is idempotent.
+     * Initializes the LocationHelper with a given context, and starts the location thread.
+     * This method is idempotent, and can be called from any thread.
      *
-     * @param context Context used for initializing stuff
+     * @param context Context used for initializing stuff (only its application context is kept)
      */
-    public static void init(Context context) {
+    public static synchronized void init(Context context) {
         if (isInitialized) return;
 
-        isInitialized = true;
-        mContext = context;
+        mContext = context.getApplicationContext();
+
+        final HandlerThread thread = new HandlerThread("FWeather-location", Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+
+        restoreLastLocation();
+        PreferenceManager.getDefaultSharedPreferences(mContext)
+                         .registerOnSharedPreferenceChangeListener(sPreferenceListener);
+
         hasPlayServices = GooglePlayServicesUtil.isGooglePlayServicesAvailable(mContext)
                 == ConnectionResult.SUCCESS;
 
         FLog.d(TAG, "Device supports Play Services: " + hasPlayServices);
 
-        _instance.bootstrapLocationHelper();
+        // Publishes all of the above to the threads that check the initialization
+        isInitialized = true;
+
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                _instance.bootstrapLocationHelper();
+            }
+        });
+    }
+
+    /**
+     * Checks if the current thread is the location thread.
+     *
+     * @return true if the location modules can be touched from the current thread
+     */
+    private static boolean isOnLocationThread() {
+        return Looper.myLooper() == mHandler.getLooper();
     }
 
     /**
-     * Bootstraps the appropriate location modules
+     * Bootstraps the appropriate location modules. Runs on the location thread.
      */
     private void bootstrapLocationHelper() {
         FLog.d(TAG, "Bootstrapping location provider. Using Play Services: " + hasPlayServices);
@@ -122,23 +210,45 @@ public class LocationHelper {
             mLocationManager = (LocationManager) mContext.getSystemService(Context.LOCATION_SERVICE);
 
             final Criteria criteria = getDefaultCriteria();
-            final String provider = mLocationManager.getBestProvider(criteria, true);
+            mLocationProvider = mLocationManager.getBestProvider(criteria, true);
 
-            if (TextUtils.isEmpty(provider)) {
+            if (TextUtils.isEmpty(mLocationProvider)) {
                 FLog.w(mContext, TAG, "No provider available, unable to bootstrap location");
                 return;
             }
 
             // Setup the listener
             mLocationManagerListener = new LocationManagerListener();
-            FLog.v(TAG, "Requesting a single update to the system LocationManager...");
-            mLocationManager.requestLocationUpdates(provider, getMinUpdateInterval(), 0,
-                                                    mLocationManagerListener, Looper.myLooper());
+            requestManagerUpdates();
         }
 
         // At this point, either mLocationClient or mLocationManager are doing their initialization stuff
     }
 
+    /**
+     * Requests location updates to the system LocationManager, delivered on the location
+     * thread. When a geofence is armed, the updates are removed after the first location.
+     * Runs on the location thread.
+     */
+    private void requestManagerUpdates() {
+        FLog.v(TAG, "Requesting updates to the system LocationManager...");
+        mLocationManager.requestLocationUpdates(mLocationProvider, getMinUpdateInterval(), 0,
+                                                mLocationManagerListener, mHandler.getLooper());
+    }
+
+    /**
+     * Requests a location update to the Play Services' Location Client, delivered on the
+     * location thread. The updates are removed after the first location.
+     * Runs on the location thread.
+     */
+    private void requestClientUpdates() {
+        LocationRequest request = LocationRequest.create();
+        request.setPriority(LocationRequest.PRIORITY_LOW_POWER);
+        request.setFastestInterval(getMinUpdateInterval());
+        FLog.v(TAG, "Requesting updates to the Play Services' Location Client...");
+        mLocationClient.requestLocationUpdates(request, mLocationClientListener, mHandler.getLooper());
+    }
+
     private long getMinUpdateInterval() {
         SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(mContext);
         String valuePreference = sp.getString(Const.Preferences.SYNC_FREQUENCY, "300");
@@ -162,28 +272,382 @@ public class LocationHelper {
     }
 
     /**
-     * Returns the last known surroudings, if any.
-     * When called with a pendingIntent, iif the PendingIntent is not null and the last
-     * location is null too, the pending intent will be started when the first update is got.
+     * Checks if the location provider is connected.
+     * @return true if connected, false otherwise
+     */
+    public static boolean isConnected() {
+        return isConnected;
+    }
+
+    /**
+     * Returns the last known surroudings, if any, without waiting for a location.
      *
-     * @param pendingIntent PendingIntent to be called on the first update
-     * @return              the last known Location
+     * @return the last known Location, or null if there is none yet
      * @see "http://www.youtube.com/watch?v=2UNj5Oqs29g"
      */
-    public static Location getLastKnownSurroundings(PendingIntent pendingIntent)
-            throws LocationNotReadyYetException {
+    public static Location getLastKnownSurroundings() {
+        return lastKnownSurroundings;
+    }
 
+    /**
+     * Requests the current location. If a location is available the returned future
+     * is already complete, otherwise it completes when the first location is retrieved,
+     * or with a null location when the timeout expires. While the location provider isn't
+     * connected, the last known location is only used if it's recent enough.
+     * This method doesn't block and can be called from any thread.
+     *
+     * @param timeoutMillis How long to wait for a location, in milliseconds
+     * @return Returns the pending location request
+     */
+    public static LocationFuture getLocationAsync(long timeoutMillis) {
         FLog.v(TAG, "Getting last known location. HasPlayServices: " + hasPlayServices);
 
         // Checks if the LocationHelper has been initialized and if we are connected
-        if (!checkForInit() || !isConnected) {
-            // Re-start the pending intent when the connection is established
-            mPendingIntent = pendingIntent;
-            throw new LocationNotReadyYetException();
+        final boolean ready = checkForInit() && isConnected;
+        final LocationFuture future = new LocationFuture(timeoutMillis);
+
+        synchronized (sLocationLock) {
+            final Location location = lastKnownSurroundings;
+            if (location != null && (ready || isRecent(location))) {
+                future.complete(location);
+                return future;
+            }
+
+            // Wait for the connection to be established and the location to be retrieved
+            pruneRequests();
+            sPendingRequests.add(future);
         }
 
-        // Return the last known surroundings
-        return lastKnownSurroundings;
+        FLog.d(TAG, "No location available yet, waiting for it up to " + timeoutMillis + " ms");
+        mHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                expireRequest(future);
+            }
+        }, timeoutMillis);
+
+        return future;
+    }
+
+    /**
+     * Checks if a location is recent enough to be used while the location provider
+     * isn't connected.
+     *
+     * @param location The location
+     * @return Returns true if the location isn't older than the maximum age
+     */
+    private static boolean isRecent(Location location) {
+        final long age = System.currentTimeMillis() - location.getTime();
+        return age >= 0 && age <= LAST_LOCATION_MAX_AGE_MILLIS;
+    }
+
+    /**
+     * Restores the location saved by {@link #saveLastLocation(Location)}, if it's
+     * recent enough to be used.
+     */
+    private static void restoreLastLocation() {
+        final SharedPreferences prefs = mContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        if (!prefs.contains(KEY_TIME)) {
+            return;
+        }
+
+        final Location location = new Location(prefs.getString(KEY_PROVIDER, ""));
+        location.setLatitude(Double.longBitsToDouble(prefs.getLong(KEY_LATITUDE, 0L)));
+        location.setLongitude(Double.longBitsToDouble(prefs.getLong(KEY_LONGITUDE, 0L)));
+        location.setTime(prefs.getLong(KEY_TIME, 0L));
+        if (prefs.contains(KEY_ACCURACY)) {
+            location.setAccuracy(prefs.getFloat(KEY_ACCURACY, 0f));
+        }
+
+        if (!isRecent(location)) {
+            FLog.d(TAG, "The saved location is too old, waiting for a new one");
+            return;
+        }
+
+        synchronized (sLocationLock) {
+            if (lastKnownSurroundings == null) {
+                lastKnownSurroundings = location;
+            }
+        }
+        FLog.d(TAG, "Restored the last known location, from " +
+                    (System.currentTimeMillis() - location.getTime()) / 1000 + " seconds ago");
+    }
+
+    /**
+     * Saves a location, so that it can be restored when the LocationHelper is initialized.
+     *
+     * @param location The location to save
+     */
+    private static void saveLastLocation(Location location) {
+        final SharedPreferences.Editor editor =
+            mContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
+                    .putString(KEY_PROVIDER, location.getProvider())
+                    .putLong(KEY_LATITUDE, Double.doubleToRawLongBits(location.getLatitude()))
+                    .putLong(KEY_LONGITUDE, Double.doubleToRawLongBits(location.getLongitude()))
+                    .putLong(KEY_TIME, location.getTime());
+
+        if (location.hasAccuracy()) {
+            editor.putFloat(KEY_ACCURACY, location.getAccuracy());
+        }
+        else {
+            editor.remove(KEY_ACCURACY);
+        }
+        editor.apply();
+    }
+
+    /**
+     * Checks if the geofence mode is enabled in the preferences.
+     *
+     * @return Returns true if the location is to be checked only when leaving the geofence
+     */
+    public static boolean isGeofencingEnabled() {
+        return PreferenceManager.getDefaultSharedPreferences(mContext)
+                                .getBoolean(Const.Preferences.SYNC_GEOFENCE, true);
+    }
+
+    /**
+     * Moves the geofence around the location the current weather has been resolved for,
+     * if it's outside the armed one. If the geofence mode is disabled, removes the armed
+     * geofence instead (if any), and restores the location polling.
+     * This method can be called from any thread.
+     *
+     * @param location The location the current weather has been resolved for
+     */
+    public static void updateGeofence(final Location location) {
+        if (!isInitialized) {
+            return;
+        }
+
+        final float radius = Const.Thresholds.MOVEMENT_RADIUS;
+        if (!isGeofencingEnabled()) {
+            if (isGeofenceArmed()) {
+                disarmGeofence();
+            }
+            return;
+        }
+
+        synchronized (sLocationLock) {
+            if (sGeofenceCenter != null && sGeofenceCenter.distanceTo(location) <= radius) {
+                // Still inside the armed geofence
+                return;
+            }
+            sGeofenceCenter = location;
+        }
+
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                _instance.addGeofence(location, radius);
+            }
+        });
+    }
+
+    /**
+     * Called when the device has left the geofence: requests a fresh location,
+     * and updates the widgets as soon as it's available.
+     * This method can be called from any thread.
+     */
+    public static void onGeofenceExited() {
+        synchronized (sLocationLock) {
+            sGeofenceCenter = null;
+            sMissedRequests = true;
+        }
+
+        if (checkForInit() && isConnected) {
+            FLog.d(TAG, "Left the geofence, requesting a fresh location");
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    _instance.requestLocationUpdates();
+                }
+            });
+        }
+        else {
+            // The location will be retrieved (and the widgets updated) as soon as we're connected
+            FLog.d(TAG, "Left the geofence, waiting for the connection to get the location");
+        }
+    }
+
+    private static boolean isGeofenceArmed() {
+        synchronized (sLocationLock) {
+            return sGeofenceCenter != null;
+        }
+    }
+
+    /**
+     * Checks if the armed geofence contains a location fix. Since the geofence hasn't
+     * fired yet, the device hasn't left the area around that fix.
+     *
+     * @param fix The location fix
+     * @return Returns true if a geofence is armed and the fix is inside it
+     */
+    public static boolean isInsideArmedGeofence(WeatherCache.Fix fix) {
+        synchronized (sLocationLock) {
+            return sGeofenceCenter != null && fix.distanceTo(sGeofenceCenter) <= Const.Thresholds.MOVEMENT_RADIUS;
+        }
+    }
+
+    /**
+     * Forgets the geofence and removes it from the location module (even if it was
+     * registered by a previous run), restoring the location polling.
+     */
+    private static void disarmGeofence() {
+        synchronized (sLocationLock) {
+            sGeofenceCenter = null;
+        }
+
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                _instance.removeGeofence();
+            }
+        });
+    }
+
+    /**
+     * Registers the geofence, replacing the previous one. Runs on the location thread.
+     *
+     * @param center The center of the geofence
+     * @param radius The radius of the geofence, in meters
+     */
+    private void addGeofence(final Location center, float radius) {
+        FLog.d(TAG, "Registering the geofence. Using Play Services: " + hasPlayServices);
+        final PendingIntent intent = getGeofenceIntent();
+
+        final LocationClient client = mLocationClient;
+        if (hasPlayServices && client != null && client.isConnected()) {
+            final Geofence geofence = new Geofence.Builder()
+                .setRequestId(GEOFENCE_REQUEST_ID)
+                .setCircularRegion(center.getLatitude(), center.getLongitude(), radius)
+                .setExpirationDuration(Geofence.NEVER_EXPIRE)
+                .setTransitionTypes(Geofence.GEOFENCE_TRANSITION_EXIT)
+                .build();
+
+            client.addGeofences(Collections.singletonList(geofence), intent,
+                                new LocationClient.OnAddGeofencesResultListener() {
+                                    @Override
+                                    public void onAddGeofencesResult(int statusCode, String[] requestIds) {
+                                        if (statusCode != LocationStatusCodes.SUCCESS) {
+                                            FLog.w(TAG, "Unable to register the geofence, status: " + statusCode);
+                                            onGeofenceFailed(center);
+                                        }
+                                    }
+                                });
+        }
+        else if (!hasPlayServices && mLocationManager != null) {
+            try {
+                mLocationManager.removeProximityAlert(intent);
+                mLocationManager.addProximityAlert(center.getLatitude(), center.getLongitude(), radius, -1, intent);
+            }
+            catch (RuntimeException e) {
+                FLog.w(TAG, "Unable to register the proximity alert", e);
+                onGeofenceFailed(center);
+                return;
+            }
+
+            // No need to poll the location anymore
+            if (mLocationManagerListener != null) {
+                mLocationManager.removeUpdates(mLocationManagerListener);
+            }
+        }
+        else {
+            onGeofenceFailed(center);
+        }
+    }
+
+    /**
+     * Removes the geofence, and restores the location polling. Runs on the location thread.
+     */
+    private void removeGeofence() {
+        FLog.d(TAG, "Removing the geofence");
+        final PendingIntent intent = getGeofenceIntent();
+
+        final LocationClient client = mLocationClient;
+        if (client != null && client.isConnected()) {
+            client.removeGeofences(Collections.singletonList(GEOFENCE_REQUEST_ID),
+                                   new LocationClient.OnRemoveGeofencesResultListener() {
+                                       @Override
+                                       public void onRemoveGeofencesByRequestIdsResult(int statusCode,
+                                                                                       String[] requestIds) {
+                                           FLog.v(TAG, "Geofence removed, status: " + statusCode);
+                                       }
+
+                                       @Override
+                                       public void onRemoveGeofencesByPendingIntentResult(int statusCode,
+                                                                                          PendingIntent intent) {
+                                           FLog.v(TAG, "Geofence removed, status: " + statusCode);
+                                       }
+                                   });
+        }
+        if (mLocationManager != null) {
+            mLocationManager.removeProximityAlert(intent);
+            if (!hasPlayServices) {
+                requestLocationUpdates();
+            }
+        }
+    }
+
+    /**
+     * Forgets a geofence that couldn't be registered, so that it's retried on the next
+     * weather update. The location polling goes on in the meantime.
+     *
+     * @param center The center of the geofence
+     */
+    private static void onGeofenceFailed(Location center) {
+        synchronized (sLocationLock) {
+            if (sGeofenceCenter == center) {
+                sGeofenceCenter = null;
+            }
+        }
+    }
+
+    private static PendingIntent getGeofenceIntent() {
+        final Intent intent = new Intent(mContext, GeofenceBroadcastReceiver.class)
+            .setAction(ACTION_GEOFENCE_TRANSITION);
+        return PendingIntent.getBroadcast(mContext, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+
+    /**
+     * Requests a fresh location to the current location module. Runs on the location thread.
+     */
+    private void requestLocationUpdates() {
+        final LocationClient client = mLocationClient;
+        if (hasPlayServices && client != null && client.isConnected()) {
+            requestClientUpdates();
+        }
+        else if (!hasPlayServices && mLocationManager != null && mLocationManagerListener != null) {
+            requestManagerUpdates();
+        }
+    }
+
+    /**
+     * Completes a pending location request without a location, if it's still pending.
+     *
+     * @param future The location request
+     */
+    private static void expireRequest(LocationFuture future) {
+        synchronized (sLocationLock) {
+            if (!sPendingRequests.remove(future)) {
+                return;
+            }
+            sMissedRequests = true;
+        }
+
+        if (future.complete(null)) {
+            FLog.w(TAG, "No location was available before the deadline");
+        }
+    }
+
+    /**
+     * Removes the requests that are complete (cancelled) from the pending ones.
+     * Must be called holding the location lock.
+     */
+    private static void pruneRequests() {
+        for (Iterator<LocationFuture> i = sPendingRequests.iterator(); i.hasNext(); ) {
+            if (i.next().isDone()) {
+                i.remove();
+            }
+        }
     }
 
     /**
@@ -202,10 +666,11 @@ public class LocationHelper {
         // Check if the Location Services are active (this might have been changed
         // since the last update went on) -- the location client has to be connected
         // whenever Play Services are available and we are updating!
-        if (hasPlayServices && !mLocationClient.isConnected()) {
+        // (the client itself is owned by the location thread, which keeps isConnected updated)
+        if (hasPlayServices && !isConnected) {
             FLog.w(TAG, String.format("The location client is not connected yet!.\n" +
                                       "\t> HasPlayServices: %s, connected: %s",
-                                      hasPlayServices, mLocationClient.isConnected()));
+                                      hasPlayServices, isConnected));
             return false;
         }
 
@@ -251,17 +716,33 @@ public class LocationHelper {
         return criteria;
     }
 
-    public static class LocationNotReadyYetException extends Exception {
-
-    }
-
+    /**
+     * Listens to the Play Services' Location Client. The location updates are delivered on
+     * the location thread, while the connection callbacks are delivered on the main thread,
+     * and moved to the location thread.
+     */
     private class LocationClientListener implements
             com.google.android.gms.location.LocationListener,
             GooglePlayServicesClient.ConnectionCallbacks,
             GooglePlayServicesClient.OnConnectionFailedListener {
 
         @Override
-        public void onConnected(Bundle bundle) {
+        public void onConnected(final Bundle bundle) {
+            if (!isOnLocationThread()) {
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onConnected(bundle);
+                    }
+                });
+                return;
+            }
+
+            if (mLocationClient == null) {
+                // We've switched to compatibility mode in the meantime
+                return;
+            }
+
             if (!mLocationClient.isConnected()) {
                 // Strange shit happens here sometimes...
                 FLog.w(mContext, TAG,
@@ -272,11 +753,7 @@ public class LocationHelper {
             // The LocationClient has connected
             FLog.d(mContext, TAG, "LocationClient has connected.");
 
-            LocationRequest request = LocationRequest.create();
-            request.setPriority(LocationRequest.PRIORITY_LOW_POWER);
-            request.setFastestInterval(getMinUpdateInterval());
-            FLog.v(TAG, "Requesting updates to the Play Services' Location Client...");
-            mLocationClient.requestLocationUpdates(request, this);
+            requestClientUpdates();
 
             mPlayServicesConnRetriesLeft = PLAY_SERVICES_CONNECTION_RETRIES;
             onGenericConnected();
@@ -300,6 +777,20 @@ public class LocationHelper {
 
         @Override
         public void onDisconnected() {
+            if (!isOnLocationThread()) {
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onDisconnected();
+                    }
+                });
+                return;
+            }
+
+            if (mLocationClient == null) {
+                return;
+            }
+
             cancelUpdateTimeout();
             onGenericDisconnected();
 
@@ -312,7 +803,21 @@ public class LocationHelper {
         }
 
         @Override
-        public void onConnectionFailed(ConnectionResult connectionResult) {
+        public void onConnectionFailed(final ConnectionResult connectionResult) {
+            if (!isOnLocationThread()) {
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onConnectionFailed(connectionResult);
+                    }
+                });
+                return;
+            }
+
+            if (mLocationClient == null) {
+                return;
+            }
+
             cancelUpdateTimeout();
             onGenericDisconnected();
 
@@ -357,6 +862,12 @@ public class LocationHelper {
         @Override
         public void onLocationChanged(Location location) {
             updateLocation(location);
+
+            // While the geofence is armed, there's no need to poll the location
+            if (isGeofenceArmed()) {
+                FLog.v(TAG, "Geofence armed, removing the LocationManager updates");
+                mLocationManager.removeUpdates(this);
+            }
         }
 
         @Override
@@ -387,13 +898,12 @@ public class LocationHelper {
     }
 
     /**
-     * Callback method called every time there is a location update.
+     * Callback method called every time there is a location update, on the location thread.
      * @param location the new Location
      */
     private void updateLocation(Location location) {
         // Update the location
         FLog.d(mContext, TAG, "Location has been updated!");
-        lastKnownSurroundings = location;
 
         // The LocationManager does not have a connection callback,
         // so we have to rely on listening to location changes
@@ -402,7 +912,26 @@ public class LocationHelper {
             FLog.d(mContext, TAG, "LocationManager has connected.");
             onGenericConnected();
         }
-        tryUpdateWidgets();
+
+        final List<LocationFuture> requests;
+        final boolean missedRequests;
+        synchronized (sLocationLock) {
+            lastKnownSurroundings = location;
+            requests = new ArrayList<LocationFuture>(sPendingRequests);
+            sPendingRequests.clear();
+            missedRequests = sMissedRequests;
+            sMissedRequests = false;
+        }
+
+        saveLastLocation(location);
+
+        // Complete the pending requests, and if some expired, update the widgets now
+        for (LocationFuture request : requests) {
+            request.complete(location);
+        }
+        if (missedRequests) {
+            tryUpdateWidgets();
+        }
     }
 
     /**
@@ -413,18 +942,11 @@ public class LocationHelper {
     }
 
     /**
-     * Tries to update the widgets by calling the updater IntentService
+     * Tries to update the widgets by calling the UpdaterService
      */
     private void tryUpdateWidgets() {
-        // If there is a pending intent
-        if (mPendingIntent != null) {
-            // Start it
-            try {
-                mContext.startIntentSender(mPendingIntent.getIntentSender(), null, 0, 0, 0);
-            } catch (IntentSender.SendIntentException e) {
-                FLog.e(mContext, TAG, "Could not launch Intent.", e);
-            }
-        }
+        FLog.d(mContext, TAG, "Updating the widgets, which didn't get a location in time");
+        mContext.startService(WidgetHelper.getUpdaterIntent(mContext, false, false));
     }
 
     /**
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2014 Sebastiano Poggi and Francesco Pontillo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.frakbot.FWeather.util;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.location.Location;
+import net.frakbot.FWeather.updater.weather.model.LocationInfo;
+import net.frakbot.global.Const;
+import net.frakbot.util.geo.Geohash;
+import net.frakbot.util.log.FLog;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Map;
+
+/**
+ * Persistent cache of the reverse-geocoded {@link LocationInfo}s (the WOEIDs and
+ * the town name), so that a device that hasn't moved doesn't need to query
+ * the places API on every update.
+ * <p/>
+ * Locations are grouped by the geohash cell they fall in: all the locations in
+ * the same cell share the same cache entry. The entries are stored in a
+ * dedicated SharedPreferences file, and expire after a TTL.
+ *
+ * @author Sebastiano Poggi, Francesco Pontillo
+ */
+public class LocationInfoCache {
+
+    private static final String TAG = LocationInfoCache.class.getSimpleName();
+
+    private static final String PREFS_NAME = "location_info_cache";
+    private static final int MAX_ENTRIES = 32;
+
+    private static final String KEY_TIMESTAMP = "timestamp";
+    private static final String KEY_TOWN = "town";
+    private static final String KEY_WOEIDS = "woeids";
+
+    private static final int CELL_PRECISION = Const.Thresholds.LOCATION_INFO_CACHE_CELL_PRECISION;
+    private static final long TTL_MILLIS = Const.Thresholds.LOCATION_INFO_CACHE_TTL * 1000L;
+
+    private LocationInfoCache() {
+    }
+
+    /**
+     * Gets the cached location info for the cell the location falls in.
+     *
+     * @param context  The current {@link Context}.
+     * @param location The location
+     * @return Returns the cached location info, or null if there is no valid entry
+     */
+    public static synchronized LocationInfo get(Context context, Location location) {
+        final String cell = getCell(location);
+        final String serialized = getPreferences(context).getString(cell, null);
+        if (serialized == null) {
+            FLog.v(TAG, "No cached location info for cell " + cell);
+            return null;
+        }
+
+        try {
+            final JSONObject entry = new JSONObject(serialized);
+            if (isExpired(entry.getLong(KEY_TIMESTAMP))) {
+                FLog.v(TAG, "Cached location info for cell " + cell + " has expired");
+                getPreferences(context).edit().remove(cell).apply();
+                return null;
+            }
+
+            final LocationInfo locationInfo = new LocationInfo();
+            locationInfo.town = entry.optString(KEY_TOWN, null);
+            final JSONArray woeids = entry.getJSONArray(KEY_WOEIDS);
+            locationInfo.woeids = new ArrayList<String>(woeids.length());
+            for (int i = 0; i < woeids.length(); i++) {
+                locationInfo.woeids.add(woeids.getString(i));
+            }
+
+            FLog.d(TAG, "Using cached location info for cell " + cell);
+            return locationInfo;
+        } catch (JSONException e) {
+            FLog.w(TAG, "Invalid cached location info for cell " + cell + ", discarding it");
+            getPreferences(context).edit().remove(cell).apply();
+            return null;
+        }
+    }
+
+    /**
+     * Caches the location info for the cell the location falls in. Expired entries
+     * are purged, and if the cache is still full, the oldest entry is evicted.
+     *
+     * @param context      The current {@link Context}.
+     * @param location     The location the info has been resolved for
+     * @param locationInfo The resolved location info
+     */
+    public static synchronized void put(Context context, Location location, LocationInfo locationInfo) {
+        if (locationInfo == null || locationInfo.woeids == null || locationInfo.woeids.isEmpty()) {
+            return;
+        }
+
+        final String cell = getCell(location);
+        final JSONObject entry = new JSONObject();
+        try {
+            entry.put(KEY_TIMESTAMP, System.currentTimeMillis());
+            entry.put(KEY_TOWN, locationInfo.town);
+            entry.put(KEY_WOEIDS, new JSONArray(locationInfo.woeids));
+        } catch (JSONException e) {
+            FLog.w(TAG, "Unable to serialize the location info for cell " + cell, e);
+            return;
+        }
+
+        final SharedPreferences prefs = getPreferences(context);
+        final SharedPreferences.Editor editor = prefs.edit();
+        purge(prefs, editor, cell);
+        editor.putString(cell, entry.toString()).apply();
+
+        FLog.v(TAG, "Location info cached for cell " + cell);
+    }
+
+    /**
+     * Removes all the cached location info.
+     *
+     * @param context The current {@link Context}.
+     */
+    public static synchronized void clear(Context context) {
+        getPreferences(context).edit().clear().apply();
+    }
+
+    /**
+     * Removes the expired entries and, if there's no room for a new one, the oldest entry.
+     */
+    private static void purge(SharedPreferences prefs, SharedPreferences.Editor editor, String newCell) {
+        final Map<String, ?> entries = prefs.getAll();
+        int count = entries.containsKey(newCell) ? entries.size() - 1 : entries.size();
+        String oldestCell = null;
+        long oldestTimestamp = Long.MAX_VALUE;
+
+        for (Map.Entry<String, ?> cached : entries.entrySet()) {
+            if (cached.getKey().equals(newCell)) continue;
+
+            long timestamp;
+            try {
+                timestamp = new JSONObject(String.valueOf(cached.getValue())).getLong(KEY_TIMESTAMP);
+            } catch (JSONException e) {
+                timestamp = Long.MIN_VALUE;
+            }
+
+            if (timestamp == Long.MIN_VALUE || isExpired(timestamp)) {
+                editor.remove(cached.getKey());
+                count--;
+            } else if (timestamp < oldestTimestamp) {
+                oldestTimestamp = timestamp;
+                oldestCell = cached.getKey();
+            }
+        }
+
+        if (count >= MAX_ENTRIES && oldestCell != null) {
+            editor.remove(oldestCell);
+        }
+    }
+
+    private static boolean isExpired(long timestamp) {
+        final long age = System.currentTimeMillis() - timestamp;
+        return age < 0 || age > TTL_MILLIS;
+    }
+
+    private static String getCell(Location location) {
+        return Geohash.encode(location.getLatitude(), location.getLongitude(), CELL_PRECISION);
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
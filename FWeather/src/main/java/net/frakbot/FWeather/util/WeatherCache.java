@@ -0,0 +1,368 @@
+/*
+ * Copyright 2014 Sebastiano Poggi and Francesco Pontillo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.frakbot.FWeather.util;
+
+import android.location.Location;
+import net.frakbot.FWeather.updater.weather.model.WeatherData;
+import net.frakbot.FWeather.updater.weather.model.WeatherDataCodec;
+import net.frakbot.util.log.FLog;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU cache of the latest weather data for each WOEID, persisted to a dedicated file.
+ * <p/>
+ * Each entry has its own timestamp; the cache is bounded in size, and evicts the least
+ * recently used entries first. The cache also keeps track of the latest entry that has
+ * been stored, which is the weather at the last known position of the user. Entries
+ * can remember the location fix the weather has been resolved for.
+ * <p/>
+ * The file is small (the weather data is stored with the {@link WeatherDataCodec}), and
+ * is rewritten atomically (through a temporary file) every time an entry is stored.
+ * This class is thread safe.
+ *
+ * @author Sebastiano Poggi, Francesco Pontillo
+ */
+public class WeatherCache {
+
+    private static final String TAG = WeatherCache.class.getSimpleName();
+
+    private static final int FILE_MAGIC = 0x46574331;      // "FWC1"
+    private static final int FILE_VERSION = 2;
+    // Version 1 files have no location fixes
+    private static final int FILE_VERSION_NO_FIX = 1;
+    // Upper bound for the size of an encoded weather data; anything larger means the file is corrupt
+    private static final int MAX_ENCODED_WEATHER_SIZE = 4 * 1024;
+    // Smallest size of a stored entry: timestamp, encoded data length and fix flag
+    private static final int MIN_ENTRY_SIZE = 8 + 4 + 1;
+
+    private final File mFile;
+    private final int mMaxEntries;
+    private final Map<String, Entry> mEntries;
+    private String mLatestWoeid;
+
+    /**
+     * Creates a cache, loading the entries persisted in the file (if any).
+     *
+     * @param file       The file the cache is persisted to
+     * @param maxEntries The maximum number of entries
+     */
+    public WeatherCache(File file, int maxEntries) {
+        mFile = file;
+        mMaxEntries = maxEntries;
+        mEntries = new LinkedHashMap<String, Entry>(maxEntries + 1, 1f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > mMaxEntries;
+            }
+        };
+
+        load();
+    }
+
+    /**
+     * Gets the cached entry for a WOEID.
+     *
+     * @param woeid The WOEID
+     * @return Returns the entry, or null if there is none
+     */
+    public synchronized Entry get(String woeid) {
+        return mEntries.get(woeid);
+    }
+
+    /**
+     * Gets the latest entry that has been stored.
+     *
+     * @return Returns the latest entry, or null if there is none
+     */
+    public synchronized Entry getLatest() {
+        return mLatestWoeid != null ? mEntries.get(mLatestWoeid) : null;
+    }
+
+    /**
+     * Stores the weather data for its WOEID, and makes it the latest entry.
+     * Weather data without a WOEID is not stored.
+     *
+     * @param weather   The weather data
+     * @param timestamp The time the weather data has been retrieved at
+     * @param fix       The location fix the weather data has been resolved for, or
+     *                  null if it's not been resolved by location
+     * @return Returns the stored entry, or null if the data can't be stored
+     */
+    public synchronized Entry put(WeatherData weather, long timestamp, Location fix) {
+        if (weather == null || weather.woeid == null) {
+            FLog.v(TAG, "Not caching weather data without a WOEID");
+            return null;
+        }
+
+        final Entry entry = new Entry(new WeatherData(weather), timestamp, fix != null ? new Fix(fix) : null);
+        mEntries.put(weather.woeid, entry);
+        mLatestWoeid = weather.woeid;
+        save();
+        return entry;
+    }
+
+    /**
+     * Removes all the entries from the cache, and deletes its file.
+     */
+    public synchronized void clear() {
+        mEntries.clear();
+        mLatestWoeid = null;
+        if (mFile.exists() && !mFile.delete()) {
+            FLog.w(TAG, "Unable to delete the weather cache file");
+        }
+    }
+
+    private void load() {
+        DataInputStream in = null;
+        boolean discard = false;
+        try {
+            final long fileLength = mFile.length();
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            final int version;
+            if (in.readInt() != FILE_MAGIC ||
+                ((version = in.readInt()) != FILE_VERSION && version != FILE_VERSION_NO_FIX)) {
+                FLog.w(TAG, "Unknown weather cache file format, discarding it");
+                discard = true;
+                return;
+            }
+
+            final String latestWoeid = in.readUTF();
+            final int count = in.readInt();
+            if (count < 0 || (long) count * MIN_ENTRY_SIZE > fileLength) {
+                throw new IOException("Invalid number of entries: " + count);
+            }
+
+            // The entries are stored from the least to the most recently used
+            for (int i = 0; i < count; i++) {
+                final long timestamp = in.readLong();
+                final int length = in.readInt();
+                if (length < 0 || length > MAX_ENCODED_WEATHER_SIZE || length > fileLength) {
+                    throw new IOException("Invalid entry length: " + length);
+                }
+                final byte[] encoded = new byte[length];
+                in.readFully(encoded);
+                final Fix fix = version != FILE_VERSION_NO_FIX && in.readBoolean() ? Fix.read(in) : null;
+
+                final WeatherData weather = WeatherDataCodec.decode(encoded);
+                if (weather != null && weather.woeid != null) {
+                    mEntries.put(weather.woeid, new Entry(weather, timestamp, fix));
+                }
+            }
+            mLatestWoeid = latestWoeid.length() > 0 ? latestWoeid : null;
+
+            FLog.v(TAG, "Weather cache loaded, " + mEntries.size() + " entries");
+        } catch (FileNotFoundException e) {
+            FLog.v(TAG, "No weather cache file yet");
+        } catch (IOException e) {
+            // Truncated or corrupt (e.g. by a power loss while writing)
+            FLog.w(TAG, "Unable to read the weather cache file, discarding it", e);
+            discard = true;
+        } finally {
+            closeQuietly(in);
+        }
+
+        if (discard) {
+            mEntries.clear();
+            mLatestWoeid = null;
+            if (!mFile.delete()) {
+                FLog.w(TAG, "Unable to delete the weather cache file");
+            }
+        }
+    }
+
+    private void save() {
+        final File tmpFile = new File(mFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(FILE_VERSION);
+            out.writeUTF(mLatestWoeid != null ? mLatestWoeid : "");
+            out.writeInt(mEntries.size());
+            for (Entry entry : mEntries.values()) {
+                final byte[] encoded = WeatherDataCodec.encode(entry.mWeather);
+                out.writeLong(entry.mTimestamp);
+                out.writeInt(encoded.length);
+                out.write(encoded);
+                out.writeBoolean(entry.mFix != null);
+                if (entry.mFix != null) {
+                    entry.mFix.write(out);
+                }
+            }
+            out.close();
+            out = null;
+
+            if (!tmpFile.renameTo(mFile)) {
+                throw new IOException("Unable to rename " + tmpFile + " to " + mFile);
+            }
+        } catch (IOException e) {
+            FLog.w(TAG, "Unable to save the weather cache file", e);
+            tmpFile.delete();
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * A cached weather data, with the time it's been retrieved at. Instances are immutable.
+     */
+    public static class Entry {
+
+        private final WeatherData mWeather;
+        private final long mTimestamp;
+        private final Fix mFix;
+
+        private Entry(WeatherData weather, long timestamp, Fix fix) {
+            mWeather = weather;
+            mTimestamp = timestamp;
+            mFix = fix;
+        }
+
+        /**
+         * Returns a copy of the cached weather data.
+         *
+         * @return Returns the weather data
+         */
+        public WeatherData getWeather() {
+            return new WeatherData(mWeather);
+        }
+
+        /**
+         * Returns the time the weather data has been retrieved at.
+         *
+         * @return Returns the timestamp, in milliseconds
+         */
+        public long getTimestamp() {
+            return mTimestamp;
+        }
+
+        /**
+         * Returns the age of the weather data.
+         *
+         * @return Returns the age, in milliseconds
+         */
+        public long getAgeMillis() {
+            return System.currentTimeMillis() - mTimestamp;
+        }
+
+        /**
+         * Returns the location fix the weather data has been resolved for.
+         *
+         * @return Returns the fix, or null if the weather hasn't been resolved by location
+         */
+        public Fix getFix() {
+            return mFix;
+        }
+    }
+
+    /**
+     * A location fix, with its accuracy and the time it's been taken at. Instances are immutable.
+     */
+    public static class Fix {
+
+        // Written for the fixes with no accuracy (older files wrote 0, which is read as unknown too)
+        private static final float UNKNOWN_ACCURACY = -1f;
+
+        private final double mLatitude;
+        private final double mLongitude;
+        private final float mAccuracy;
+        private final long mTime;
+
+        private Fix(Location location) {
+            this(location.getLatitude(), location.getLongitude(),
+                 location.hasAccuracy() ? location.getAccuracy() : UNKNOWN_ACCURACY, location.getTime());
+        }
+
+        private Fix(double latitude, double longitude, float accuracy, long time) {
+            mLatitude = latitude;
+            mLongitude = longitude;
+            mAccuracy = accuracy > 0f ? accuracy : UNKNOWN_ACCURACY;
+            mTime = time;
+        }
+
+        private static Fix read(DataInputStream in) throws IOException {
+            return new Fix(in.readDouble(), in.readDouble(), in.readFloat(), in.readLong());
+        }
+
+        private void write(DataOutputStream out) throws IOException {
+            out.writeDouble(mLatitude);
+            out.writeDouble(mLongitude);
+            out.writeFloat(mAccuracy);
+            out.writeLong(mTime);
+        }
+
+        /**
+         * Returns the distance between this fix and a location.
+         *
+         * @param location The location
+         * @return Returns the distance, in meters
+         */
+        public float distanceTo(Location location) {
+            final float[] results = new float[1];
+            Location.distanceBetween(mLatitude, mLongitude, location.getLatitude(), location.getLongitude(), results);
+            return results[0];
+        }
+
+        /**
+         * Checks if the accuracy of the fix is known.
+         *
+         * @return Returns true if the fix has an accuracy
+         */
+        public boolean hasAccuracy() {
+            return mAccuracy != UNKNOWN_ACCURACY;
+        }
+
+        /**
+         * Returns the accuracy of the fix. Check {@link #hasAccuracy()} first.
+         *
+         * @return Returns the accuracy radius, in meters
+         */
+        public float getAccuracy() {
+            return mAccuracy;
+        }
+
+        /**
+         * Returns the time the fix has been taken at.
+         *
+         * @return Returns the UTC time, in milliseconds
+         */
+        public long getTime() {
+            return mTime;
+        }
+    }
+}
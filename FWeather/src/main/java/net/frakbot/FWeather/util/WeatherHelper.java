@@ -16,22 +16,26 @@
 
 package net.frakbot.FWeather.util;
 
-import android.app.PendingIntent;
 import android.content.Context;
-import android.content.Intent;
 import android.content.SharedPreferences;
 import android.location.Location;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.preference.PreferenceManager;
 import android.text.TextUtils;
+import android.util.Base64;
 import net.frakbot.FWeather.R;
 import net.frakbot.FWeather.updater.weather.CantGetWeatherException;
+import net.frakbot.FWeather.updater.weather.CircuitBreaker;
+import net.frakbot.FWeather.updater.weather.RetryPolicy;
 import net.frakbot.FWeather.updater.weather.YahooWeatherApiClient;
+import net.frakbot.FWeather.updater.weather.model.LocationInfo;
 import net.frakbot.FWeather.updater.weather.model.WeatherData;
+import net.frakbot.FWeather.updater.weather.model.WeatherDataCodec;
 import net.frakbot.global.Const;
 import net.frakbot.util.log.FLog;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
 
@@ -48,12 +52,19 @@ public class WeatherHelper {
 
     private static final String TAG = WeatherHelper.class.getSimpleName();
     private static final long WEATHER_CACHE_DURATION_MILLIS = 2 * 60 * 60 * 1000;   // Two hours cache expiry time
-    private static WeatherData mCachedWeather = null;
-    private static long mCachedWeatherTimestamp = Long.MIN_VALUE;
-    private static boolean mCacheDataRead = false;
+    private static final long STALE_WEATHER_GRACE_PERIOD_MILLIS = Const.Thresholds.STALE_WEATHER_GRACE_PERIOD * 1000L;
+    private static final String WEATHER_CACHE_FILE_NAME = "weather_cache";
+    private static final int WEATHER_CACHE_MAX_ENTRIES = 8;
+    // Key of the weather imported from the legacy cache, when it isn't for the manual location
+    private static final String LEGACY_CACHE_WOEID = "legacy";
+    private static WeatherCache sWeatherCache = null;
+    private static final long LOCATION_TIMEOUT_MILLIS = Const.Thresholds.LOCATION_TIMEOUT * 1000L;
+
+    private static final float MOVEMENT_RADIUS_METERS = Const.Thresholds.MOVEMENT_RADIUS;
+    private static final long MOVEMENT_FIX_MAX_AGE_MILLIS = Const.Thresholds.MOVEMENT_FIX_MAX_AGE * 1000L;
 
     public static WeatherData getWeather(Context context)
-            throws LocationHelper.LocationNotReadyYetException, IOException {
+            throws IOException {
         return getWeather(context, false);
     }
 
@@ -66,27 +77,33 @@ public class WeatherHelper {
      * if there was any error during the download.
      */
     public static WeatherData getWeather(Context context, boolean forced)
-        throws LocationHelper.LocationNotReadyYetException, IOException {
+        throws IOException {
         FLog.i(context, TAG, "Starting weather update");
 
         if (forced) {
-            FLog.i(context, TAG, "Update was forced, clear the cache.");
-            clearCache(context);
+            FLog.i(context, TAG, "Update was forced");
         }
 
         // Read the cached data if needed
-        if (!mCacheDataRead) {
-            readDataFromCache(context);
-            mCacheDataRead = true;
+        getWeatherCache(context);
+
+        // Use manual location if defined
+        String manualLocationWoeid = null;
+        final SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        if (sp != null) {
+            manualLocationWoeid = WeatherLocationPreference.getWoeidFromValue(
+                sp.getString(context.getString(R.string.pref_key_weather_location), null));
         }
 
         WeatherData weather;
+        Location fix = null;
 
         if (!checkNetwork(context)) {
             FLog.w(TAG, "No network seems to be available!");
 
             // Try to resort to cached weather data
-            weather = getLatestWeather();
+            weather = TextUtils.isEmpty(manualLocationWoeid) ?
+                      getLatestWeather() : getCachedWeather(context, manualLocationWoeid);
             if (weather != null) {
                 FLog.i(TAG, "Using cached weather data...");
                 return weather;
@@ -99,17 +116,18 @@ public class WeatherHelper {
             return weather;
         }
 
-        // Use manual location if defined
-        String manualLocationWoeid = null;
-        final SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
-        if (sp != null) {
-            manualLocationWoeid = WeatherLocationPreference.getWoeidFromValue(
-                sp.getString(context.getString(R.string.pref_key_weather_location), null));
+        if (!forced && CircuitBreaker.WEATHER.isOpen()) {
+            // The weather endpoint keeps failing, don't even try until it cools down
+            weather = getStaleWeather(context);
+            if (weather != null) {
+                FLog.w(TAG, "The weather endpoint is failing, using cached weather data");
+                return weather;
+            }
         }
 
         if (!TextUtils.isEmpty(manualLocationWoeid)) {
             FLog.d(TAG, "Using manual location WOEID");
-            YahooWeatherApiClient.LocationInfo locationInfo = new YahooWeatherApiClient.LocationInfo();
+            LocationInfo locationInfo = new LocationInfo();
             locationInfo.woeids = Arrays.asList(manualLocationWoeid);
             weather = getWeatherDataForLocationInfo(locationInfo);
         }
@@ -117,6 +135,15 @@ public class WeatherHelper {
             // Get the current location
             final Location location = getLocation(context);
 
+            if (location == null && !LocationHelper.isConnected()) {
+                // If the location is not ready yet, leave the View unchanged
+                FLog.d(context, TAG, "The LocationHelper is not ready yet, the widgets will be updated again " +
+                        "when a location is available.");
+                WeatherData notReadyWeather = new WeatherData();
+                notReadyWeather.conditionCode = WeatherData.INVALID_CONDITION;
+                return notReadyWeather;
+            }
+
             if (location == null) {
                 TrackerHelper.sendException(context, "No location found", false);
                 FLog.e(context, TAG, "No location available, can't update");
@@ -126,7 +153,15 @@ public class WeatherHelper {
                 return errWeather;
             }
 
-            weather = getWeatherDataForLocation(location);
+            // Don't fetch the weather again if we haven't moved since the last time
+            final WeatherCache.Entry latest = forced ? null : getLatestEntry();
+            if (latest != null && isStillGood(latest) && hasNotMovedFrom(latest.getFix(), location)) {
+                FLog.i(context, TAG, "The location hasn't changed, using the cached weather");
+                return latest.getWeather();
+            }
+
+            weather = getWeatherDataForLocation(context, location);
+            fix = location;
         }
 
         FLog.i(context, TAG, "Weather update done");
@@ -137,109 +172,156 @@ public class WeatherHelper {
             FLog.v(context, TAG, "No weather received");
         }
 
-        saveDataToCache(context, weather);
+        // Only the weather that has actually been fetched tells how fast the conditions change
+        AlarmHelper.recordFetchedWeather(context, weather);
+        saveDataToCache(context, weather, fix);
+
+        // Only check the location again when leaving the area the weather is for
+        if (weather != null && fix != null) {
+            LocationHelper.updateGeofence(fix);
+        }
 
         return weather;
     }
 
     /**
-     * Saves the current weather data to both the permanent and
-     * in-memory caches.
+     * Gets the weather cache, loading it from the permanent storage if needed.
      *
      * @param context The current {@link Context}.
-     * @param weather The weather data to save in the cache
+     *
+     * @return Returns the weather cache
      */
-    private static void saveDataToCache(Context context, WeatherData weather) {
-        final SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
-        if (sp == null) {
-            FLog.e(TAG, "Unable to access the shared preferences, can't save to cache");
-            return;
+    private static synchronized WeatherCache getWeatherCache(Context context) {
+        if (sWeatherCache == null) {
+            sWeatherCache = new WeatherCache(new File(context.getFilesDir(), WEATHER_CACHE_FILE_NAME),
+                                             WEATHER_CACHE_MAX_ENTRIES);
+            FLog.v(context, TAG, "Cached weather information retrieved from permanent storage");
+
+            importLegacyCache(context, sWeatherCache);
         }
+        return sWeatherCache;
+    }
 
-        if (weather == null) {
-            FLog.v(TAG, "Clearing cached weather information (null data)");
-            clearCache(context, true);
+    /**
+     * Moves the single-entry cache older versions kept in the default preferences
+     * to the weather cache, if it's not too old to be shown, and removes it.
+     *
+     * @param context The current {@link Context}.
+     * @param cache   The weather cache
+     */
+    private static void importLegacyCache(Context context, WeatherCache cache) {
+        final SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        if (sp == null || !sp.contains(Const.Preferences.LOCATION_CACHE)) {
             return;
         }
 
-        // Update the cached value
-        mCachedWeather = weather;
-        mCachedWeatherTimestamp = System.currentTimeMillis();
+        final long timestamp = sp.getLong(Const.Preferences.LOCATION_CACHE_TIMESTAMP, Long.MIN_VALUE);
+        final WeatherData weather = decodeWeatherData(sp.getString(Const.Preferences.LOCATION_CACHE, null));
+        final long age = System.currentTimeMillis() - timestamp;
 
-        SharedPreferences.Editor e = sp.edit();
-        e.putString(Const.Preferences.LOCATION_CACHE, weather.serializeToString())
-         .putLong(Const.Preferences.LOCATION_CACHE_TIMESTAMP, mCachedWeatherTimestamp)
-         .commit();
+        if (weather != null && timestamp != Long.MIN_VALUE && age >= 0 &&
+            age < WEATHER_CACHE_DURATION_MILLIS + STALE_WEATHER_GRACE_PERIOD_MILLIS) {
+            // The legacy cache doesn't know its WOEID: it was for the manual location, if any is set
+            if (weather.woeid == null) {
+                final String manualLocationWoeid = getManualLocationWoeid(context);
+                weather.woeid = TextUtils.isEmpty(manualLocationWoeid) ? LEGACY_CACHE_WOEID : manualLocationWoeid;
+            }
+            if (cache.get(weather.woeid) == null && cache.put(weather, timestamp, null) != null) {
+                FLog.v(context, TAG, "Legacy cached weather information imported");
+            }
+        }
 
-        FLog.v(context, TAG, "Cached weather information updated");
+        sp.edit()
+          .remove(Const.Preferences.LOCATION_CACHE)
+          .remove(Const.Preferences.LOCATION_CACHE_TIMESTAMP)
+          .apply();
     }
 
     /**
-     * Retrieved the last weather data from the permanent cache, if still valid.
+     * Decodes the weather data stored in the preferences, falling back to the
+     * legacy string format if the data is not Base64 encoded binary data.
      *
-     * @param context The current {@link android.content.Context}.
+     * @param serialized The stored weather data
+     * @return Returns the weather data, or null if it's not valid
      */
-    private static void readDataFromCache(Context context) {
-        final SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
-        if (sp == null) {
-            FLog.e(TAG, "Unable to access the shared preferences, can't read from cache");
-            return;
+    private static WeatherData decodeWeatherData(String serialized) {
+        if (serialized == null) {
+            return null;
         }
 
-        // Read the cached value
-        mCachedWeatherTimestamp = sp.getLong(Const.Preferences.LOCATION_CACHE_TIMESTAMP, Long.MIN_VALUE);
-        mCachedWeather = WeatherData.deserializeFromString(sp.getString(Const.Preferences.LOCATION_CACHE, null));
-
-        // Validate the cache age
-        if (!isLatestWeatherStillGood()) {
-            mCachedWeatherTimestamp = Long.MIN_VALUE;
+        try {
+            final WeatherData weather = WeatherDataCodec.decode(Base64.decode(serialized, Base64.NO_WRAP));
+            if (weather != null) {
+                return weather;
+            }
+        } catch (IllegalArgumentException ignored) {
+            // Not Base64, this is most likely the legacy format
         }
 
-        FLog.v(context, TAG, "Cached weather information retrieved from permanent storage");
+        return WeatherData.deserializeFromString(serialized);
     }
 
     /**
-     * Clear the cache and resets the cache-handling objects.
+     * Returns the WOEID of the manual location, if one is set.
+     *
      * @param context The current {@link Context}.
-     * @param persist true to persist to {@link android.content.SharedPreferences}, false to clear the memory cache
+     *
+     * @return Returns the WOEID, or null if the location is automatic
      */
-    private static void clearCache(Context context, boolean persist) {
-        FLog.v(TAG, "Clearing cached weather information (as requested)");
-        mCachedWeather = null;
-        mCachedWeatherTimestamp = Long.MIN_VALUE;
-
-        if (persist) {
-            final SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
-            if (sp == null) {
-                FLog.e(TAG, "Unable to access the shared preferences, can't save to cache");
-                return;
-            }
+    private static String getManualLocationWoeid(Context context) {
+        final SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        return WeatherLocationPreference.getWoeidFromValue(
+                sp.getString(context.getString(R.string.pref_key_weather_location), null));
+    }
 
-            SharedPreferences.Editor e = sp.edit();
-            e.remove(Const.Preferences.LOCATION_CACHE)
-                    .remove(Const.Preferences.LOCATION_CACHE_TIMESTAMP)
-                    .commit();
+    /**
+     * Saves the current weather data to both the permanent and
+     * in-memory caches.
+     *
+     * @param context The current {@link Context}.
+     * @param weather The weather data to save in the cache
+     * @param fix     The location the weather data has been resolved for, if any
+     */
+    private static void saveDataToCache(Context context, WeatherData weather, Location fix) {
+        if (weather == null) {
+            FLog.v(TAG, "No weather data to cache");
+            return;
+        }
+
+        if (getWeatherCache(context).put(weather, System.currentTimeMillis(), fix) != null) {
+            FLog.v(context, TAG, "Cached weather information updated");
         }
     }
+
     /**
-     * Clear the in memory cache and resets the cache-handling objects.
+     * Returns the cached weather information for a WOEID, if it's not stale.
+     *
      * @param context The current {@link Context}.
+     * @param woeid   The WOEID
+     *
+     * @return The cached {@link WeatherData}, or null if there is none
      */
-    private static void clearCache(Context context) {
-        clearCache(context, false);
+    public static WeatherData getCachedWeather(Context context, String woeid) {
+        final WeatherCache.Entry entry = getWeatherCache(context).get(woeid);
+        return isStillGood(entry) ? entry.getWeather() : null;
     }
 
     /**
-     * Gets the current location.
+     * Gets the current location, waiting for it if it's not available yet.
      *
      * @param context The current {@link Context}.
      *
-     * @return Returns the current location
+     * @return Returns the current location, or null if none is available
      */
-    public static Location getLocation(Context context) throws LocationHelper.LocationNotReadyYetException {
-        final Intent intent = WidgetHelper.getUpdaterIntent(context, false, false);
-        final PendingIntent pendingIntent = PendingIntent.getService(context, 42, intent, 0);
-        return LocationHelper.getLastKnownSurroundings(pendingIntent);
+    public static Location getLocation(Context context) {
+        try {
+            return LocationHelper.getLocationAsync(LOCATION_TIMEOUT_MILLIS).get();
+        }
+        catch (InterruptedException e) {
+            FLog.w(context, TAG, "Interrupted while waiting for the location");
+            Thread.currentThread().interrupt();
+            return null;
+        }
     }
 
     /**
@@ -256,22 +338,42 @@ public class WeatherHelper {
         return activeNetwork != null && activeNetwork.isConnectedOrConnecting();
     }
 
+    /**
+     * Returns the cached weather information that can be shown while the weather
+     * is being refreshed. It can be stale, up to a grace period past its expiry.
+     *
+     * @param context The current {@link Context}.
+     *
+     * @return The cached {@link WeatherData} for the manual location if one is set,
+     * or the latest known one otherwise; null if there is none or it's too old
+     */
+    public static WeatherData getStaleWeather(Context context) {
+        final WeatherCache cache = getWeatherCache(context);
+
+        final String manualLocationWoeid = getManualLocationWoeid(context);
+        final WeatherCache.Entry entry = TextUtils.isEmpty(manualLocationWoeid) ?
+                                         cache.getLatest() : cache.get(manualLocationWoeid);
+
+        if (entry == null || entry.getAgeMillis() >= WEATHER_CACHE_DURATION_MILLIS + STALE_WEATHER_GRACE_PERIOD_MILLIS) {
+            return null;
+        }
+        return entry.getWeather();
+    }
+
     /**
      * Returns the latest known weather information.
      *
-     * @return The cached {@link WeatherData}
+     * @return The cached {@link WeatherData}, or null if there is none
+     * or it has become stale
      */
     public static WeatherData getLatestWeather() {
-        // If the cached weather has become stale
-        if (!isLatestWeatherStillGood()) {
-            // Clear the cached timestamp
-            FLog.v(TAG, "Stale cache detected, clearing the cached weather");
-            mCachedWeatherTimestamp = Long.MIN_VALUE;
-            // Clear the cache value
-            mCachedWeather = null;
+        final WeatherCache.Entry entry = getLatestEntry();
+        if (!isStillGood(entry)) {
+            FLog.v(TAG, "No fresh cached weather available");
+            return null;
         }
 
-        return mCachedWeather;
+        return entry.getWeather();
     }
 
     /**
@@ -282,10 +384,7 @@ public class WeatherHelper {
      * weather data is not stale.
      */
     public static boolean isLatestWeatherStillGood() {
-        final long weatherAgeMillis = getLatestWeatherAgeMillis();
-        return mCachedWeatherTimestamp != Long.MIN_VALUE &&
-               mCachedWeather != null &&
-               weatherAgeMillis < WEATHER_CACHE_DURATION_MILLIS;
+        return isStillGood(getLatestEntry());
     }
 
     /**
@@ -296,19 +395,69 @@ public class WeatherHelper {
      * {@link Long#MIN_VALUE} if there is no cached weather.
      */
     public static long getLatestWeatherAgeMillis() {
-        if (mCachedWeather == null) {
-            mCachedWeatherTimestamp = Long.MIN_VALUE;
-            return mCachedWeatherTimestamp;
+        final WeatherCache.Entry entry = getLatestEntry();
+        return entry != null ? entry.getAgeMillis() : Long.MIN_VALUE;
+    }
+
+    private static synchronized WeatherCache.Entry getLatestEntry() {
+        return sWeatherCache != null ? sWeatherCache.getLatest() : null;
+    }
+
+    private static boolean isStillGood(WeatherCache.Entry entry) {
+        return entry != null && entry.getAgeMillis() < WEATHER_CACHE_DURATION_MILLIS;
+    }
+
+    /**
+     * Checks if a location is close enough to a previous one to be considered the same
+     * for the weather. The current fix must be recent, and the distance between the two
+     * fixes, increased by their accuracies, must be within the movement radius.
+     * While the geofence around the previous fix is armed, the device hasn't moved
+     * regardless of the current fix.
+     *
+     * @param previous The previous location fix (can be null)
+     * @param location The current location fix
+     * @return Returns true if the device hasn't moved, false if it has or if it's unknown
+     */
+    private static boolean hasNotMovedFrom(WeatherCache.Fix previous, Location location) {
+        if (previous == null) {
+            return false;
+        }
+
+        if (LocationHelper.isInsideArmedGeofence(previous)) {
+            // We'd have been told if we left the area, no matter how old the current fix is
+            FLog.v(TAG, "The geofence around the cached weather location hasn't fired");
+            return true;
         }
 
-        return System.currentTimeMillis() - mCachedWeatherTimestamp;
+        final long fixAge = System.currentTimeMillis() - location.getTime();
+        if (fixAge > MOVEMENT_FIX_MAX_AGE_MILLIS) {
+            FLog.v(TAG, "The current location fix is too old to tell if we moved: " + fixAge + " ms");
+            return false;
+        }
+
+        // An unknown accuracy, on either side, could be as large as the whole radius
+        final float accuracy = location.hasAccuracy() ? location.getAccuracy() : MOVEMENT_RADIUS_METERS;
+        final float previousAccuracy = previous.hasAccuracy() ? previous.getAccuracy() : MOVEMENT_RADIUS_METERS;
+        final float distance = previous.distanceTo(location);
+        FLog.v(TAG, String.format("Moved %.0f m since the cached weather (accuracy: %.0f m, previously %.0f m)",
+                                  distance, accuracy, previousAccuracy));
+
+        return distance + accuracy + previousAccuracy <= MOVEMENT_RADIUS_METERS;
     }
 
-    private static WeatherData getWeatherDataForLocation(Location location) {
+    private static WeatherData getWeatherDataForLocation(Context context, Location location) {
         WeatherData weatherData = null;
         try {
             FLog.d(TAG, "Using location: " + location.getLatitude() + "," + location.getLongitude());
-            weatherData = getWeatherWithRetry(getLocationInfoWithRetry(location));
+
+            // Skip the reverse geocoding if we already know where we are
+            LocationInfo locationInfo = LocationInfoCache.get(context, location);
+            if (locationInfo == null) {
+                locationInfo = getLocationInfoWithRetry(location);
+                LocationInfoCache.put(context, location, locationInfo);
+            }
+
+            weatherData = getWeatherWithRetry(locationInfo);
         }
         catch (CantGetWeatherException e) {
             FLog.e(TAG, "Unable to retrieve weather", e);
@@ -316,7 +465,7 @@ public class WeatherHelper {
         return weatherData;
     }
 
-    private static WeatherData getWeatherDataForLocationInfo(YahooWeatherApiClient.LocationInfo location) {
+    private static WeatherData getWeatherDataForLocationInfo(LocationInfo location) {
         try {
             FLog.d(TAG, "Using manual location. WOEIDs count: " + location.woeids.size());
             return getWeatherWithRetry(location);
@@ -333,35 +482,25 @@ public class WeatherHelper {
 
     /**
      * Internal method to retry weather fetching from the Yahoo weather provider.
-     * @param location  The {@link net.frakbot.FWeather.updater.weather.YahooWeatherApiClient.LocationInfo}
+     * @param location  The {@link net.frakbot.FWeather.updater.weather.model.LocationInfo}
      * @return          The {@link net.frakbot.FWeather.updater.weather.model.WeatherData} containing weather information
      * @throws CantGetWeatherException  If there's some network error
      */
-    private static WeatherData getWeatherWithRetry(YahooWeatherApiClient.LocationInfo location)
+    private static WeatherData getWeatherWithRetry(final LocationInfo location)
             throws CantGetWeatherException {
-        CantGetWeatherException lastException = null;
-        for (int i = 0; i < Const.Thresholds.MAX_FETCH_WEATHER_ATTEMPTS; i++) {
-            try {
-                WeatherData weatherData = YahooWeatherApiClient.getWeatherForLocationInfo(location);
-                return weatherData;
-            } catch (CantGetWeatherException e) {
-                FLog.w(TAG, String.format(
-                        "Weather fetching attempt number %d has failed. %d attempts remaining.",
-                        i+1, Const.Thresholds.MAX_FETCH_WEATHER_ATTEMPTS-i-1));
-                // Save the last exception for me
-                lastException = e;
-            }
-        }
-        FLog.e(TAG, String.format(
-                "Maximum number (%d) of weather fetching attempts reached. Giving up.",
-                Const.Thresholds.MAX_FETCH_WEATHER_ATTEMPTS));
-        // If we are here, it means that MAX_FETCH_WEATHER_ATTEMPTS have been made without a result, give up!
-        throw lastException;
+        return RetryPolicy.execute("Weather fetching", CircuitBreaker.WEATHER,
+                                   Const.Thresholds.MAX_FETCH_WEATHER_ATTEMPTS,
+                                   new RetryPolicy.Call<WeatherData>() {
+                                       @Override
+                                       public WeatherData execute() throws CantGetWeatherException {
+                                           return YahooWeatherApiClient.getWeatherForLocationInfo(location);
+                                       }
+                                   });
     }
 
     /**
      * Internal method to retry location fetching from the Yahoo weather provider.
-     * @param location  The {@link net.frakbot.FWeather.updater.weather.YahooWeatherApiClient.LocationInfo}
+     * @param location  The {@link net.frakbot.FWeather.updater.weather.model.LocationInfo}
      * @return          The {@link net.frakbot.FWeather.updater.weather.model.WeatherData} containing weather information
      * @throws CantGetWeatherException  If there's some network error
      */
@@ -369,30 +508,20 @@ public class WeatherHelper {
     /**
      * Internal method to retry location fetching from the Yahoo weather provider.
      * @param location  The known {@link android.location.Location}
-     * @return          The {@link net.frakbot.FWeather.updater.weather.YahooWeatherApiClient.LocationInfo} returned
+     * @return          The {@link net.frakbot.FWeather.updater.weather.model.LocationInfo} returned
      *                  by the Yahoo weather provider
      * @throws CantGetWeatherException  If there's some parsing or network error
      */
-    private static YahooWeatherApiClient.LocationInfo getLocationInfoWithRetry(Location location)
+    private static LocationInfo getLocationInfoWithRetry(final Location location)
             throws CantGetWeatherException {
-        CantGetWeatherException lastException = null;
-        for (int i = 0; i < Const.Thresholds.MAX_FETCH_LOCATION_ATTEMPTS; i++) {
-            try {
-                YahooWeatherApiClient.LocationInfo locationInfo = getLocationInfo(location);
-                return locationInfo;
-            } catch (CantGetWeatherException e) {
-                FLog.w(TAG, String.format(
-                        "Location fetching attempt number %d has failed. %d attempts remaining.",
-                        i+1, Const.Thresholds.MAX_FETCH_LOCATION_ATTEMPTS-i-1));
-                // Save the last exception for me
-                lastException = e;
-            }
-        }
-        FLog.e(TAG, String.format(
-                "Maximum number (%d) of Location fetching attempts reached. Giving up.",
-                Const.Thresholds.MAX_FETCH_LOCATION_ATTEMPTS));
-        // If we are here, it means that MAX_FETCH_WEATHER_ATTEMPTS have been made without a result, give up!
-        throw lastException;
+        return RetryPolicy.execute("Location fetching", CircuitBreaker.GEO_PLANET,
+                                   Const.Thresholds.MAX_FETCH_LOCATION_ATTEMPTS,
+                                   new RetryPolicy.Call<LocationInfo>() {
+                                       @Override
+                                       public LocationInfo execute() throws CantGetWeatherException {
+                                           return getLocationInfo(location);
+                                       }
+                                   });
     }
 
 }
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2014 Sebastiano Poggi and Francesco Pontillo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.frakbot.FWeather.util;
+
+import android.content.res.Resources;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+import net.frakbot.FWeather.updater.weather.model.WeatherData;
+import net.frakbot.util.log.FLog;
+
+/**
+ * Lookup tables from the weather condition codes and temperature descriptors to
+ * the resource IDs of the phrases, their colors and the weather images.
+ * <p/>
+ * The mappings are defined in the res/values/map_weather_*.xml files, by resource
+ * name. They are not localized, so the resolved IDs never change while the app
+ * is running: each code is resolved (using the slow, reflection-based
+ * {@link Resources#getIdentifier(String, String, String)}) the first time it's
+ * used, and then it's served from an int-keyed table.
+ * This class is thread safe.
+ */
+public class WeatherResourceTable {
+
+    private static final String TAG = WeatherResourceTable.class.getSimpleName();
+
+    private static final String PREFIX_MAIN = "weather_code";
+    private static final String PREFIX_TEMP = "weather_temp";
+    private static final String PREFIX_IMAGE = "weather_image";
+    private static final String SUFFIX_DARK = "_dark";
+    private static final String FALLBACK_IMAGE = "err_wtf";
+
+    private static final SparseArray<Phrase[]> sMainPhrases = new SparseArray<Phrase[]>();
+    private static final SparseArray<Phrase[]> sTempPhrases = new SparseArray<Phrase[]>();
+    private static final SparseIntArray sImages = new SparseIntArray();
+    private static final SparseIntArray sDarkImages = new SparseIntArray();
+
+    private WeatherResourceTable() {
+    }
+
+    /**
+     * Gets the phrases for a weather condition code.
+     *
+     * @param res         The Resources
+     * @param packageName The app package name
+     * @param code        The weather condition code
+     * @return Returns the phrases for the code, or the ones for an unknown
+     *         condition if there are none
+     */
+    public static Phrase[] getMainPhrases(Resources res, String packageName, int code) {
+        return getPhrases(sMainPhrases, PREFIX_MAIN, res, packageName, code);
+    }
+
+    /**
+     * Gets the phrases for a temperature range descriptor.
+     *
+     * @param res         The Resources
+     * @param packageName The app package name
+     * @param descriptor  The temperature range descriptor
+     * @return Returns the phrases for the descriptor, or the ones for an unknown
+     *         temperature if there are none
+     */
+    public static Phrase[] getTempPhrases(Resources res, String packageName, int descriptor) {
+        return getPhrases(sTempPhrases, PREFIX_TEMP, res, packageName, descriptor);
+    }
+
+    /**
+     * Gets the ID of the image drawable for a weather condition code.
+     *
+     * @param res         The Resources
+     * @param packageName The app package name
+     * @param code        The weather condition code
+     * @param darkMode    True if the widget is in dark mode, false otherwise
+     * @return Returns the drawable resource ID
+     */
+    public static int getImageId(Resources res, String packageName, int code, boolean darkMode) {
+        final SparseIntArray table = darkMode ? sDarkImages : sImages;
+        synchronized (table) {
+            int drawableId = table.get(code, 0);
+            if (drawableId == 0) {
+                drawableId = resolveImage(res, packageName, code, darkMode);
+                table.put(code, drawableId);
+            }
+            return drawableId;
+        }
+    }
+
+    private static Phrase[] getPhrases(SparseArray<Phrase[]> table, String prefix,
+                                       Resources res, String packageName, int value) {
+        synchronized (table) {
+            Phrase[] phrases = table.get(value);
+            if (phrases == null) {
+                phrases = resolvePhrases(prefix, res, packageName, value);
+                if (phrases.length == 0 && value != WeatherData.INVALID_CONDITION) {
+                    FLog.w(TAG, "No phrases for " + prefix + " " + value + ", using the fallback ones");
+                    phrases = getPhrases(table, prefix, res, packageName, WeatherData.INVALID_CONDITION);
+                }
+                table.put(value, phrases);
+            }
+            return phrases;
+        }
+    }
+
+    private static Phrase[] resolvePhrases(String prefix, Resources res, String packageName, int value) {
+        final int arrayId = res.getIdentifier(buildResourceName(prefix, value), "array", packageName);
+        if (arrayId == 0) {
+            return new Phrase[0];
+        }
+
+        final String[] names = res.getStringArray(arrayId);
+        final Phrase[] phrases = new Phrase[names.length];
+        for (int i = 0; i < names.length; i++) {
+            phrases[i] = new Phrase(res.getIdentifier(names[i], "string", packageName),
+                                    res.getIdentifier(names[i], "color", packageName),
+                                    res.getIdentifier(names[i] + SUFFIX_DARK, "color", packageName));
+        }
+        return phrases;
+    }
+
+    private static int resolveImage(Resources res, String packageName, int code, boolean darkMode) {
+        final int stringId = res.getIdentifier(buildResourceName(PREFIX_IMAGE, code), "string", packageName);
+        String imageName = stringId != 0 ? res.getString(stringId).trim() : FALLBACK_IMAGE;
+        if (darkMode) {
+            imageName += SUFFIX_DARK;
+        }
+        return res.getIdentifier(imageName, "drawable", packageName);
+    }
+
+    /**
+     * Build a resource name starting from the prefix and an integer value.
+     * The resulting {@link java.lang.String} will be in the following formats:
+     *  - prefix_value if the value is >= 0
+     *  - prefix_m_value if the value is < 0
+     *
+     * @param prefix    The prefix for the resource name
+     * @param value     The value to build the resource name from
+     * @return          A string in the "prefix_[m_]value" format
+     */
+    private static String buildResourceName(String prefix, int value) {
+        return value < 0 ? prefix + "_m_" + (-(long) value) : prefix + "_" + value;
+    }
+
+    /**
+     * The resource IDs of a weather phrase and its highlight colors. Instances are immutable.
+     */
+    public static class Phrase {
+
+        public final int stringId;
+        public final int colorId;
+        public final int darkColorId;
+
+        private Phrase(int stringId, int colorId, int darkColorId) {
+            this.stringId = stringId;
+            this.colorId = colorId;
+            this.darkColorId = darkColorId;
+        }
+    }
+}
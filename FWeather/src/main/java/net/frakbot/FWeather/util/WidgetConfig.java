@@ -0,0 +1,135 @@
+/*
+ * Copyright 2014 Sebastiano Poggi and Francesco Pontillo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.frakbot.FWeather.util;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import net.frakbot.FWeather.R;
+import net.frakbot.util.log.FLog;
+
+import java.util.Arrays;
+
+/**
+ * Immutable snapshot of the preferences used to render the widgets.
+ * <p/>
+ * The snapshot is built the first time it's requested, and then rebuilt only
+ * when one of its preferences changes, so that the update pass can read plain
+ * fields instead of looking up (and parsing) the preferences for each widget.
+ * This class is thread safe.
+ */
+public final class WidgetConfig {
+
+    private static final String TAG = WidgetConfig.class.getSimpleName();
+
+    private static final Object sLock = new Object();
+    private static volatile WidgetConfig sConfig;
+    private static String[] sKeys;
+
+    // Keep a strong reference: the SharedPreferences only hold weak references to their listeners
+    private static final SharedPreferences.OnSharedPreferenceChangeListener sChangeListener =
+        new SharedPreferences.OnSharedPreferenceChangeListener() {
+            @Override
+            public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+                if (Arrays.asList(sKeys).contains(key)) {
+                    FLog.d(TAG, "Widget preference changed: " + key + ", rebuilding the config");
+                    sConfig = new WidgetConfig(sharedPreferences, sKeys);
+                }
+            }
+        };
+
+    private static final int KEY_DARK_MODE = 0;
+    private static final int KEY_TEMPERATURE = 1;
+    private static final int KEY_ICON = 2;
+    private static final int KEY_BUTTONS = 3;
+    private static final int KEY_BG_OPACITY = 4;
+    private static final int KEY_SERVE_STALE = 5;
+
+    /** True if the widgets use the dark theme */
+    public final boolean darkMode;
+    /** True if the widgets show the temperature */
+    public final boolean temperatureVisible;
+    /** True if the widgets show the weather icon */
+    public final boolean iconVisible;
+    /** True if the widgets show the action buttons */
+    public final boolean buttonsVisible;
+    /** The widget background opacity, in percent */
+    public final int bgOpacity;
+    /** True if the cached weather is shown while it's being refreshed */
+    public final boolean serveStale;
+
+    private WidgetConfig(SharedPreferences prefs, String[] keys) {
+        darkMode = prefs.getBoolean(keys[KEY_DARK_MODE], false);
+        temperatureVisible = prefs.getBoolean(keys[KEY_TEMPERATURE], true);
+        iconVisible = prefs.getBoolean(keys[KEY_ICON], true);
+        buttonsVisible = prefs.getBoolean(keys[KEY_BUTTONS], true);
+        bgOpacity = parseBgOpacity(prefs.getString(keys[KEY_BG_OPACITY], null));
+        serveStale = prefs.getBoolean(keys[KEY_SERVE_STALE], true);
+    }
+
+    /**
+     * Gets the current widget preferences snapshot.
+     *
+     * @param context The Context
+     * @return Returns the current snapshot
+     */
+    public static WidgetConfig get(Context context) {
+        WidgetConfig config = sConfig;
+        if (config != null) {
+            return config;
+        }
+
+        synchronized (sLock) {
+            if (sConfig == null) {
+                final Context appContext = context.getApplicationContext();
+                sKeys = new String[] {
+                    appContext.getString(R.string.pref_key_ui_darkmode),
+                    appContext.getString(R.string.pref_key_ui_toggle_temperature_info),
+                    appContext.getString(R.string.pref_key_ui_toggle_weather_icon),
+                    appContext.getString(R.string.pref_key_ui_toggle_buttons),
+                    appContext.getString(R.string.pref_key_ui_bgopacity),
+                    appContext.getString(R.string.pref_key_sync_serve_stale)
+                };
+
+                final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(appContext);
+                prefs.registerOnSharedPreferenceChangeListener(sChangeListener);
+                sConfig = new WidgetConfig(prefs, sKeys);
+            }
+            return sConfig;
+        }
+    }
+
+    /**
+     * Parses the value of the background opacity preference.
+     *
+     * @param prefVal The preference value
+     * @return Returns the opacity, or 0 if the value is missing or invalid
+     */
+    private static int parseBgOpacity(String prefVal) {
+        if (prefVal == null) {
+            return 0;
+        }
+
+        try {
+            return Integer.parseInt(prefVal);
+        }
+        catch (NumberFormatException e) {
+            FLog.w(TAG, "Invalid preference value for UI BG opacity, defaulting to 0: " + prefVal, e);
+            return 0;
+        }
+    }
+}
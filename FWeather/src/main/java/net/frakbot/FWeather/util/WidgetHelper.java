@@ -20,9 +20,13 @@ import android.appwidget.AppWidgetManager;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
+import android.content.pm.ActivityInfo;
+import android.content.res.Configuration;
 import android.content.res.TypedArray;
 import android.text.Html;
 import android.text.Spanned;
+import android.text.SpannedString;
+import android.util.LruCache;
 import android.view.Gravity;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -30,11 +34,15 @@ import android.widget.Toast;
 import net.frakbot.FWeather.FWeatherWidgetProvider;
 import net.frakbot.FWeather.R;
 import net.frakbot.FWeather.updater.UpdaterService;
+import net.frakbot.FWeather.updater.weather.model.TemperatureBuckets;
 import net.frakbot.FWeather.updater.weather.model.WeatherData;
+import net.frakbot.FWeather.widget.BgColorTable;
 import net.frakbot.FWeather.widget.FontTextView;
 import net.frakbot.global.Const;
 import net.frakbot.util.log.FLog;
 
+import java.util.Locale;
+
 /**
  * Helper class that deals with finding resources to assign to
  * the widget views.
@@ -45,12 +53,51 @@ public class WidgetHelper {
 
     private static final String PLACEHOLDER_COLOR = "%%COLOR%%";
 
+    private static final int SPANNED_CACHE_SIZE = 64;
+    // Configuration changes that don't invalidate the spanned cache (the locale is part of the key,
+    // and switching to or from an RTL locale flips the layout direction too)
+    private static final int SPANNED_CACHE_IGNORED_CONFIG_CHANGES = ActivityInfo.CONFIG_LOCALE |
+                                                                    ActivityInfo.CONFIG_LAYOUT_DIRECTION;
+
+    // Colored phrases, keyed by phrase, dark mode and locale
+    private static final LruCache<SpannedKey, Spanned> sSpannedCache =
+            new LruCache<SpannedKey, Spanned>(SPANNED_CACHE_SIZE);
+    // The configuration the cached phrases have been rendered with
+    private static Configuration sSpannedCacheConfig;
+
+    // The widget background colors for each opacity step, resolved once per configuration
+    private static volatile BgColorTable sBgColors;
+    private static volatile BgColorTable sBgColorsDark;
+
     private Context mContext;
+    private Locale mLocale;
 
     public WidgetHelper(Context c) {
         mContext = c;
     }
 
+    /**
+     * Sets the locale the strings are currently resolved with. This must be called
+     * when the locale is switched to a different one than the configuration's.
+     *
+     * @param locale The active locale, or null to use the configuration's
+     */
+    public void setLocale(Locale locale) {
+        mLocale = locale;
+    }
+
+    /**
+     * Clears the cached colored phrases and colors. Call this when the configuration changes.
+     */
+    public static void invalidateResourceCaches() {
+        synchronized (sSpannedCache) {
+            sSpannedCache.evictAll();
+            sSpannedCacheConfig = null;
+        }
+        sBgColors = null;
+        sBgColorsDark = null;
+    }
+
     /**
      * Gets the instances of the FWeather widget.
      *
@@ -100,21 +147,42 @@ public class WidgetHelper {
      * @return Returns the spanned, colored string
      */
     public Spanned getColoredSpannedString(int stringId, int lightColorId, int darkColorId, boolean darkMode) {
+        final Configuration config = mContext.getResources().getConfiguration();
+        final SpannedKey key = new SpannedKey(stringId, darkMode, mLocale != null ? mLocale : config.locale);
+
+        synchronized (sSpannedCache) {
+            if (sSpannedCacheConfig == null ||
+                (sSpannedCacheConfig.diff(config) & ~SPANNED_CACHE_IGNORED_CONFIG_CHANGES) != 0) {
+                sSpannedCache.evictAll();
+                sSpannedCacheConfig = new Configuration(config);
+            }
+
+            final Spanned cached = sSpannedCache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
         int color = mContext.getResources().getColor(!darkMode ? lightColorId : darkColorId);
         String string = mContext.getString(stringId)
                 .replace(PLACEHOLDER_COLOR, String.format("#%06X", (0xFFFFFF & color)));
-        return Html.fromHtml(string);
+        // Html.fromHtml returns a mutable Spanned, store an immutable copy
+        final Spanned spanned = new SpannedString(Html.fromHtml(string));
+
+        synchronized (sSpannedCache) {
+            sSpannedCache.put(key, spanned);
+        }
+        return spanned;
     }
 
     /**
-     * Gets the string representing the weather.
+     * Picks the phrase representing the weather.
      *
-     * @param weather  The weather to get the string for
-     * @param darkMode True if the widget is in dark mode, false otherwise
+     * @param weather The weather to get the phrase for
      *
-     * @return Returns the corresponding weather string
+     * @return Returns a pseudo-random phrase among the ones for the weather
      */
-    public Spanned getWeatherMainString(WeatherData weather, boolean darkMode) {
+    public WeatherResourceTable.Phrase getWeatherMainPhrase(WeatherData weather) {
         final int weatherId;
         if (weather != null) {
             weatherId = weather.conditionCode;
@@ -122,50 +190,22 @@ public class WidgetHelper {
             weatherId = -1;
         }
 
-        Spanned randomSpanned = getGenericRandomWeatherSpanned("weather_code", weatherId, darkMode);
-        return randomSpanned;
+        return getRandomPhrase(
+                WeatherResourceTable.getMainPhrases(mContext.getResources(), mContext.getPackageName(), weatherId));
     }
 
     /**
-     * Gets the temperature string for the weather.
+     * Picks the temperature phrase for the weather.
      *
-     * @param weather  The weather to get the temperature string for
-     * @param darkMode True if the widget is in dark mode, false otherwise
-     * @return Returns the temperature string
+     * @param weather The weather to get the temperature phrase for
+     * @return Returns a pseudo-random phrase among the ones for the temperature range
      */
-    public Spanned getWeatherTempString(WeatherData weather, boolean darkMode) {
-        final float temp;
-
-        if (weather != null) {
-            if (weather.conditionCode == WeatherData.WEATHER_ID_ERR_NO_LOCATION) {
-                // Error: no location available
-                temp = WeatherData.WEATHER_ID_ERR_NO_LOCATION;
-            } else if (weather.conditionCode == WeatherData.WEATHER_ID_ERR_NO_NETWORK) {
-                // Error: no location or no network available
-                temp = WeatherData.WEATHER_ID_ERR_NO_NETWORK;
-            } else {
-                temp = weather.temperature;
-            }
-        } else {
-            temp = WeatherData.WEATHER_ID_ERR_WTF;
-        }
-
-        int tempRangeDescriptor = WeatherData.WEATHER_ID_ERR_WTF;
+    public WeatherResourceTable.Phrase getWeatherTempPhrase(WeatherData weather) {
+        int tempRangeDescriptor = TemperatureBuckets.getTemperatureRangeDescriptor(weather);
 
-        // Loop for every temperature
-        int[] temperatures = new int[] {-10002, -10001, -10000, -1, 15, 28, 1000};
-        for (int t : temperatures) {
-            // If the range minimum bound matches
-            if (temp <= t) {
-                // Select it and let's grab a beer
-                tempRangeDescriptor = t;
-                break;
-            }
-        }
-
-        // Select a random temeprature string, formst it and blah blah
-        Spanned randomSpanned = getGenericRandomWeatherSpanned("weather_temp", tempRangeDescriptor, darkMode);
-        return randomSpanned;
+        return getRandomPhrase(
+                WeatherResourceTable.getTempPhrases(mContext.getResources(), mContext.getPackageName(),
+                                                    tempRangeDescriptor));
     }
 
     /**
@@ -176,7 +216,6 @@ public class WidgetHelper {
      * @return Returns the corresponding weather image ID
      */
     public int getWeatherImageId(WeatherData weather, boolean darkMode) {
-        final String packageName = mContext.getPackageName();
         final int weatherId;
 
         if (weather != null) {
@@ -185,97 +224,34 @@ public class WidgetHelper {
             weatherId = -1;
         }
 
-        String valueId = buildResourceName("weather_image", weatherId);
-        // Get the resource string id
-        int stringId = mContext.getResources().getIdentifier(valueId, "string", packageName);
-        String imageName = mContext.getResources().getString(stringId);
-        if (imageName == null) {
-            imageName = "err_wtf";
-        }
-        if (darkMode) {
-            imageName += "_dark";
-        }
-        int drawableId = mContext.getResources().getIdentifier(imageName, "drawable", packageName);
-
-        return drawableId;
+        return WeatherResourceTable.getImageId(mContext.getResources(), mContext.getPackageName(),
+                                               weatherId, darkMode);
     }
 
     /**
-     * Build a resource name starting from the prefix and an integer value.
-     * The resulting {@link java.lang.String} will be in the following formats:
-     *  - prefix_value if the value is >= 0
-     *  - prefix_m_value if the value is < 0
+     * Gets a phrase as a {@link android.text.Spanned} colored with the phrase's
+     * light or dark color.
      *
-     * @param prefix    The prefix for the resource name
-     * @param value     The value to build the resource name from
-     * @return          A string in the "prefix_[m_]value" format
-     */
-    private String buildResourceName(String prefix, int value) {
-        // Create the array identifier string, such as "code_32" or "code_m_10000"
-        String valueId = ((Integer) Math.abs(Integer.valueOf(value))).toString();
-        if (value < 0) {
-            valueId = "m_" + valueId;
-        }
-        valueId = prefix + "_" + valueId;
-        return valueId;
-    }
-
-    /**
-     * Get a generic {@link java.lang.String} array by using the prefix and the value.
-     *
-     * @param prefix   The prefix for the string array (e.g. "code")
-     * @param value    The value to attach to the prefix
+     * @param phrase   The phrase (can be null)
+     * @param darkMode true to return a dark {@link android.text.Spanned} text
      *
-     * @return The randomly selected {@link android.text.Spanned} text
+     * @return The colored {@link android.text.Spanned} text, or null if there's no phrase
      */
-    private String[] getGenericStringNameArray(String prefix, int value) {
-        final String packageName = mContext.getPackageName();
-        // Create the array identifier string, such as "code_32" or "code_m_10000"
-        String valueId = buildResourceName(prefix, value);
-        // Get the array int id
-        int arrayId = mContext.getResources().getIdentifier(valueId, "array", packageName);
-        if (arrayId == 0) {
-            FLog.w(mContext, "WidgetHelper", String.format("No resource named %s", valueId));
+    public Spanned getPhraseSpanned(WeatherResourceTable.Phrase phrase, boolean darkMode) {
+        if (phrase == null) {
             return null;
         }
-        // Get the candidate strings
-        String[] candidates = mContext.getResources().getStringArray(arrayId);
-        return candidates;
-    }
 
-    /**
-     * Get a generic random weather {@link android.text.Spanned} by doing the following:
-     * 1) Uses the prefix and the value to retrieve a custom {@link java.lang.String} array
-     * 2) Selects a pseudo-random {@link java.lang.String} from the retrieved array
-     * 3) Gets the corresponding string with the random selected name
-     * 4) Gets the default "light" color with the same string name
-     * 5) Gets the "dark" color by appending "_dark" to the selected string name
-     *
-     * @param prefix   The prefix for the string array (e.g. "code")
-     * @param value    The value to attach to the prefix
-     * @param darkMode true to return a dark {@link android.text.Spanned} text
-     *
-     * @return The randomly selected {@link android.text.Spanned} text
-     */
-    private Spanned getGenericRandomWeatherSpanned(String prefix, int value, boolean darkMode) {
-        String packageName = mContext.getPackageName();
-        // Get a pseudo-random string
-        String theChosenOne = getRandomString(getGenericStringNameArray(prefix, value));
-        // Retrieve the string name, the color and dark color
-        int theChosenOneId = mContext.getResources().getIdentifier(theChosenOne, "string", packageName);
-        int colorId = mContext.getResources().getIdentifier(theChosenOne, "color", packageName);
-        int colorDarkId = mContext.getResources().getIdentifier(theChosenOne + "_dark", "color", packageName);
-        // Return the spanned string
-        return getColoredSpannedString(theChosenOneId, colorId, colorDarkId, darkMode);
+        return getColoredSpannedString(phrase.stringId, phrase.colorId, phrase.darkColorId, darkMode);
     }
 
     /**
-     * Get a pseudo-random string from a string array.
+     * Get a pseudo-random phrase from an array.
      *
-     * @param candidates The candidates {@link java.lang.String}s
-     * @return A pseudo-random {@link java.lang.String}
+     * @param candidates The candidate phrases
+     * @return A pseudo-random phrase
      */
-    private String getRandomString(String[] candidates) {
+    private WeatherResourceTable.Phrase getRandomPhrase(WeatherResourceTable.Phrase[] candidates) {
         if (candidates == null || candidates.length <= 0) {
             return null;
         }
@@ -299,20 +275,80 @@ public class WidgetHelper {
      * @return Returns the color to be assigned to the widget BG
      */
     public int getWidgetBGColor(int bgOpacityPrefValue, boolean darkMode) {
-        TypedArray colors = mContext.getResources()
+        if (!BgColorTable.isValidOpacity(bgOpacityPrefValue)) {
+            FLog.w("WidgetHelper", "Invalid BG preference value detected: " + bgOpacityPrefValue);
+        }
+
+        return getBgColors(darkMode).getColor(bgOpacityPrefValue);
+    }
+
+    /**
+     * Gets the widget background colors for each opacity step, loading them
+     * from the resources the first time they're needed.
+     *
+     * @param darkMode True if the widget is in dark mode, false otherwise
+     * @return Returns the background colors
+     */
+    private BgColorTable getBgColors(boolean darkMode) {
+        BgColorTable colors = darkMode ? sBgColorsDark : sBgColors;
+        if (colors != null) {
+            return colors;
+        }
+
+        final TypedArray array = mContext.getResources()
                 .obtainTypedArray(darkMode ? R.array.bg_colors_darkmode : R.array.bg_colors);
+        try {
+            final int[] values = new int[array.length()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = array.getColor(i, 0x00000000);
+            }
+            colors = new BgColorTable(values);
+        }
+        finally {
+            array.recycle();
+        }
 
-        final int opacityStep = 25;
-        // Normalize the opacity
-        int modulus = bgOpacityPrefValue % opacityStep;
-        if (modulus != 0) {
-            FLog.w("WidgetHelper", "Invalid BG preference value detected: " + bgOpacityPrefValue);
-            bgOpacityPrefValue = bgOpacityPrefValue - modulus;
+        if (darkMode) {
+            sBgColorsDark = colors;
         }
+        else {
+            sBgColors = colors;
+        }
+        return colors;
+    }
 
-        // We assume a fully transparent BG color as default
-        return colors.getColor(bgOpacityPrefValue/opacityStep, 0x00000000);
+    /**
+     * Key of the colored phrases cache.
+     */
+    private static class SpannedKey {
+
+        private final int mStringId;
+        private final boolean mDarkMode;
+        private final Locale mLocale;
+
+        private SpannedKey(int stringId, boolean darkMode, Locale locale) {
+            mStringId = stringId;
+            mDarkMode = darkMode;
+            mLocale = locale;
+        }
 
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof SpannedKey)) return false;
+
+            SpannedKey that = (SpannedKey) o;
+            return mStringId == that.mStringId && mDarkMode == that.mDarkMode &&
+                   (mLocale == null ? that.mLocale == null : mLocale.equals(that.mLocale));
+        }
+
+        @Override
+        public int hashCode() {
+            int result = mStringId;
+            result = 31 * result + (mDarkMode ? 1 : 0);
+            result = 31 * result + (mLocale != null ? mLocale.hashCode() : 0);
+            return result;
+        }
     }
 
     /**
@@ -355,14 +391,13 @@ public class WidgetHelper {
     }
 
     /**
-     * Get the sharing string by using the given weather data.
+     * Get the sharing string by using the given weather phrase.
      *
-     * @param weatherData The {@link net.frakbot.FWeather.updater.weather.model.WeatherData} to build the share
-     *                    string from
+     * @param phrase The weather phrase shown by the widget, see {@link #getWeatherMainPhrase(WeatherData)}
      * @return The sharing string
      */
-    public String getShareString(WeatherData weatherData) {
-        String weather = getWeatherMainString(weatherData, false).toString();
+    public String getShareString(WeatherResourceTable.Phrase phrase) {
+        String weather = getPhraseSpanned(phrase, false).toString();
         return new StringBuilder().append(weather).append(" ").append(Const.Share.VIA).toString();
     }
 }
\ No newline at end of file
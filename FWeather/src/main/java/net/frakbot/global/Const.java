@@ -64,6 +64,8 @@ public class Const {
         public static final String CHANGE = "change";
         public static final String SYNC_FREQUENCY = "sync_frequency";
         public static final String SYNC_FORCE = "sync_force";
+        public static final String SYNC_SERVE_STALE = "sync_serve_stale";
+        public static final String SYNC_GEOFENCE = "sync_geofence";
         public static final String FEEDBACK = "feedback";
         public static final String ANALYTICS = "analytics";
         public static final String AUTHORS = "authors";
@@ -86,6 +88,37 @@ public class Const {
     public class Thresholds {
         public static final int MAX_FETCH_WEATHER_ATTEMPTS = 3;
         public static final int MAX_FETCH_LOCATION_ATTEMPTS = 3;
+        // How many WOEID weather queries can be in flight at the same time (1 = one after another)
+        public static final int WOEID_FAN_OUT = 3;
+        // Geohash precision of the cells the reverse-geocoded locations are cached by (6 = ~1.2 x 0.6 km)
+        public static final int LOCATION_INFO_CACHE_CELL_PRECISION = 6;
+        // How long a reverse-geocoded location is cached for
+        public static final int LOCATION_INFO_CACHE_TTL = 7 * 24 * 60 * 60;
+        // How long past its expiry the cached weather can still be shown while it's being refreshed
+        public static final int STALE_WEATHER_GRACE_PERIOD = 6 * 60 * 60;
+        // How long the widget update requests are held to be merged with the following ones
+        public static final int UPDATE_COALESCING_WINDOW = 1;
+        // The longest the sync interval is stretched to when nothing is changing (unless the user sets a longer one)
+        public static final int SYNC_MAX_ADAPTIVE_INTERVAL = 6 * 60 * 60;
+        // The battery level (in percent) under which the sync interval is stretched
+        public static final int SYNC_LOW_BATTERY_PERCENT = 15;
+        // The upper bound of the randomized delay before the first retry of a failed call (doubles at each retry)
+        public static final int RETRY_BASE_DELAY = 1;
+        // The upper bound of the randomized delay before any retry of a failed call
+        public static final int RETRY_MAX_DELAY = 8;
+        // How many consecutive failed calls to an endpoint make it be skipped for a while
+        public static final int CIRCUIT_BREAKER_FAILURE_THRESHOLD = 5;
+        // How long a failing endpoint is skipped for, before trying it again
+        public static final int CIRCUIT_BREAKER_OPEN_DURATION = 15 * 60;
+        // How far (in meters) the device can move before the cached weather isn't valid for it anymore
+        public static final int MOVEMENT_RADIUS = 5000;
+        // How old a location fix can be to tell if the device has moved
+        public static final int MOVEMENT_FIX_MAX_AGE = 30 * 60;
+        // How long an update waits for the location, when none is available yet
+        public static final int LOCATION_TIMEOUT = 30;
+        // How old the last known location (possibly saved by a previous run) can be, to be used
+        // while the location provider isn't connected
+        public static final int LAST_LOCATION_MAX_AGE = 60 * 60;
     }
 
     public class Share {
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2014 Sebastiano Poggi and Francesco Pontillo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.frakbot.FWeather.benchmark;
+
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Helper class to load the recorded Yahoo! responses used by the benchmarks,
+ * and to create parsers that mimic the ones we get on Android.
+ */
+final class Fixtures {
+
+    /** A Yahoo! Weather RSS feed, as returned for a WOEID query. */
+    static final String WEATHER_FEED = "fixtures/forecastrss.xml";
+    /** A GeoPlanet response for a places.q('lat,lon') query. */
+    static final String PLACES_COORDINATES = "fixtures/places_coordinates.xml";
+    /** A GeoPlanet response for a places.q('name*') search. */
+    static final String PLACES_SEARCH = "fixtures/places_search.xml";
+
+    // Android ships kXML as its XmlPullParser implementation
+    private static final String PARSER_CLASS_NAME = "org.kxml2.io.KXmlParser";
+
+    private Fixtures() {
+    }
+
+    /**
+     * Reads a fixture from the classpath.
+     *
+     * @param name The name of the fixture resource
+     * @return Returns the raw bytes of the fixture
+     */
+    static byte[] load(String name) throws IOException {
+        InputStream in = Fixtures.class.getClassLoader().getResourceAsStream(name);
+        if (in == null) {
+            throw new IOException("Fixture not found: " + name);
+        }
+
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Creates a namespace-aware XmlPullParserFactory, configured as the
+     * one used by the YahooWeatherApiClient.
+     *
+     * @return Returns the factory
+     */
+    static XmlPullParserFactory newParserFactory() throws XmlPullParserException {
+        XmlPullParserFactory factory = XmlPullParserFactory.newInstance(PARSER_CLASS_NAME, null);
+        factory.setNamespaceAware(true);
+        return factory;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2014 Sebastiano Poggi and Francesco Pontillo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.frakbot.FWeather.benchmark;
+
+import net.frakbot.FWeather.updater.weather.model.LocationInfo;
+import net.frakbot.FWeather.updater.weather.model.LocationSearchResult;
+import net.frakbot.FWeather.updater.weather.parser.PlacesParser;
+import net.frakbot.FWeather.updater.weather.parser.YahooPlacesParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of parsing the recorded GeoPlanet responses, both for
+ * the reverse-geocoding done on every automatic location update and for the
+ * location search done while the user types in the location chooser.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlacesParserBenchmark {
+
+    private final PlacesParser mParser = new YahooPlacesParser();
+
+    private XmlPullParserFactory mFactory;
+    private byte[] mCoordinatesResponse;
+    private byte[] mSearchResponse;
+
+    @Setup
+    public void setUp() throws Exception {
+        mFactory = Fixtures.newParserFactory();
+        mCoordinatesResponse = Fixtures.load(Fixtures.PLACES_COORDINATES);
+        mSearchResponse = Fixtures.load(Fixtures.PLACES_SEARCH);
+    }
+
+    @Benchmark
+    public LocationInfo parseLocationInfo() throws Exception {
+        XmlPullParser xpp = mFactory.newPullParser();
+        xpp.setInput(new ByteArrayInputStream(mCoordinatesResponse), null);
+        return mParser.parseLocationInfo(xpp);
+    }
+
+    @Benchmark
+    public List<LocationSearchResult> parseSearchResults() throws Exception {
+        XmlPullParser xpp = mFactory.newPullParser();
+        xpp.setInput(new ByteArrayInputStream(mSearchResponse), null);
+        List<LocationSearchResult> results = new ArrayList<LocationSearchResult>();
+        mParser.parseSearchResults(xpp, results);
+        return results;
+    }
+}
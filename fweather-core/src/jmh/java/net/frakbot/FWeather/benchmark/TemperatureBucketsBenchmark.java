@@ -0,0 +1,65 @@
+/*
+ * Copyright 2014 Sebastiano Poggi and Francesco Pontillo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.frakbot.FWeather.benchmark;
+
+import net.frakbot.FWeather.updater.weather.model.TemperatureBuckets;
+import net.frakbot.FWeather.updater.weather.model.WeatherData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the temperature bucketing done for each widget on every update.
+ * <p/>
+ * The bucketing is on the steady-state render path and must not allocate; that
+ * is asserted by <code>RenderPathAllocationTest</code>.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TemperatureBucketsBenchmark {
+
+    @Param({"-5", "12", "29", "45"})
+    public int temperature;
+
+    private WeatherData mWeather;
+
+    @Setup
+    public void setUp() {
+        mWeather = new WeatherData();
+        mWeather.conditionCode = 30;
+        mWeather.temperature = temperature;
+    }
+
+    @Benchmark
+    public int getTemperatureRangeDescriptor() {
+        return TemperatureBuckets.getTemperatureRangeDescriptor(mWeather);
+    }
+}
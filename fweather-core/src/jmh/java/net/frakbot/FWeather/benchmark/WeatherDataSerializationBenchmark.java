@@ -0,0 +1,97 @@
+/*
+ * Copyright 2014 Sebastiano Poggi and Francesco Pontillo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.frakbot.FWeather.benchmark;
+
+import net.frakbot.FWeather.updater.weather.model.WeatherData;
+import net.frakbot.FWeather.updater.weather.model.WeatherDataCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of persisting and restoring the cached {@link WeatherData},
+ * with the binary {@link WeatherDataCodec} and with the legacy string format.
+ * <p/>
+ * Run with <code>-prof gc</code> to compare the allocation of the two formats.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WeatherDataSerializationBenchmark {
+
+    private WeatherData mWeather;
+    private String mSerialized;
+    private byte[] mEncoded;
+
+    @Setup
+    public void setUp() {
+        mWeather = new WeatherData();
+        mWeather.location = "Milan, Centro Storico, LO";
+        mWeather.conditionText = "Partly Cloudy";
+        mWeather.conditionCode = 30;
+        mWeather.temperature = 29;
+        mWeather.low = 20;
+        mWeather.high = 31;
+        mWeather.forecastText = "PM Thunderstorms";
+        mWeather.todayForecastConditionCode = 38;
+
+        mSerialized = mWeather.serializeToString();
+        mEncoded = WeatherDataCodec.encode(mWeather);
+    }
+
+    @Benchmark
+    public String serializeToString() {
+        return mWeather.serializeToString();
+    }
+
+    @Benchmark
+    public WeatherData deserializeFromString() {
+        return WeatherData.deserializeFromString(mSerialized);
+    }
+
+    @Benchmark
+    public WeatherData roundTripString() {
+        return WeatherData.deserializeFromString(mWeather.serializeToString());
+    }
+
+    @Benchmark
+    public byte[] encodeBinary() {
+        return WeatherDataCodec.encode(mWeather);
+    }
+
+    @Benchmark
+    public WeatherData decodeBinary() {
+        return WeatherDataCodec.decode(mEncoded);
+    }
+
+    @Benchmark
+    public WeatherData roundTripBinary() {
+        return WeatherDataCodec.decode(WeatherDataCodec.encode(mWeather));
+    }
+}
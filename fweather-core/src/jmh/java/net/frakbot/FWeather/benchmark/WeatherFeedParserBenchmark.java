@@ -0,0 +1,106 @@
+/*
+ * Copyright 2014 Sebastiano Poggi and Francesco Pontillo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.frakbot.FWeather.benchmark;
+
+import net.frakbot.FWeather.updater.weather.model.WeatherData;
+import net.frakbot.FWeather.updater.weather.parser.WeatherFeedParser;
+import net.frakbot.FWeather.updater.weather.parser.YahooWeatherFeedParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Measures the cost of turning a recorded Yahoo! Weather RSS feed into a
+ * {@link WeatherData}, as done on every weather update.
+ * <p/>
+ * The early termination variant stops reading the feed as soon as all the
+ * needed fields have been read. The gzip variants also decompress the feed
+ * while parsing it, like the API client does with compressed responses: compare
+ * each of them with its uncompressed counterpart to get the decompression cost.
+ * <p/>
+ * Run with <code>-prof gc</code> to get the allocation per parsed feed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WeatherFeedParserBenchmark {
+
+    private final WeatherFeedParser mParser = new YahooWeatherFeedParser();
+    private final WeatherFeedParser mEarlyTerminatingParser = new YahooWeatherFeedParser(true);
+
+    private XmlPullParserFactory mFactory;
+    private byte[] mFeed;
+    private byte[] mGzippedFeed;
+
+    @Setup
+    public void setUp() throws Exception {
+        mFactory = Fixtures.newParserFactory();
+        mFeed = Fixtures.load(Fixtures.WEATHER_FEED);
+
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        GZIPOutputStream out = new GZIPOutputStream(gzipped);
+        out.write(mFeed);
+        out.close();
+        mGzippedFeed = gzipped.toByteArray();
+    }
+
+    @Benchmark
+    public WeatherData parseWeatherFeed() throws Exception {
+        XmlPullParser xpp = mFactory.newPullParser();
+        xpp.setInput(new ByteArrayInputStream(mFeed), null);
+        return mParser.parseWeather(xpp, "Centro Storico");
+    }
+
+    @Benchmark
+    public WeatherData parseWeatherFeedEarlyTermination() throws Exception {
+        XmlPullParser xpp = mFactory.newPullParser();
+        xpp.setInput(new ByteArrayInputStream(mFeed), null);
+        return mEarlyTerminatingParser.parseWeather(xpp, "Centro Storico");
+    }
+
+    @Benchmark
+    public WeatherData parseGzippedWeatherFeed() throws Exception {
+        XmlPullParser xpp = mFactory.newPullParser();
+        xpp.setInput(new GZIPInputStream(new ByteArrayInputStream(mGzippedFeed)), null);
+        return mParser.parseWeather(xpp, "Centro Storico");
+    }
+
+    @Benchmark
+    public WeatherData parseGzippedWeatherFeedEarlyTermination() throws Exception {
+        XmlPullParser xpp = mFactory.newPullParser();
+        xpp.setInput(new GZIPInputStream(new ByteArrayInputStream(mGzippedFeed)), null);
+        return mEarlyTerminatingParser.parseWeather(xpp, "Centro Storico");
+    }
+}
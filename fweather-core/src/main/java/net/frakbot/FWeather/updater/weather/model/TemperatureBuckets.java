@@ -0,0 +1,70 @@
+/*
+ * Copyright 2014 Sebastiano Poggi and Francesco Pontillo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.frakbot.FWeather.updater.weather.model;
+
+/**
+ * Maps the weather temperature (or error state) to the temperature range
+ * descriptor used to pick the temperature phrases on the widget.
+ */
+public class TemperatureBuckets {
+
+    // The upper bounds of the temperature ranges, in ascending order
+    private static final int[] RANGE_BOUNDS = new int[] {-10002, -10001, -10000, -1, 15, 28, 1000};
+
+    private TemperatureBuckets() {
+    }
+
+    /**
+     * Gets the temperature range descriptor for the weather. The descriptor
+     * is the upper bound of the range the temperature falls into, or the
+     * error code if the weather data represents an error.
+     *
+     * @param weather The weather to get the range descriptor for (can be null)
+     * @return Returns the temperature range descriptor
+     */
+    public static int getTemperatureRangeDescriptor(WeatherData weather) {
+        final float temp;
+
+        if (weather != null) {
+            if (weather.conditionCode == WeatherData.WEATHER_ID_ERR_NO_LOCATION) {
+                // Error: no location available
+                temp = WeatherData.WEATHER_ID_ERR_NO_LOCATION;
+            } else if (weather.conditionCode == WeatherData.WEATHER_ID_ERR_NO_NETWORK) {
+                // Error: no location or no network available
+                temp = WeatherData.WEATHER_ID_ERR_NO_NETWORK;
+            } else {
+                temp = weather.temperature;
+            }
+        } else {
+            temp = WeatherData.WEATHER_ID_ERR_WTF;
+        }
+
+        int tempRangeDescriptor = WeatherData.WEATHER_ID_ERR_WTF;
+
+        // Loop for every temperature
+        for (int t : RANGE_BOUNDS) {
+            // If the range minimum bound matches
+            if (temp <= t) {
+                // Select it and let's grab a beer
+                tempRangeDescriptor = t;
+                break;
+            }
+        }
+
+        return tempRangeDescriptor;
+    }
+}
@@ -32,16 +32,15 @@
 
 package net.frakbot.FWeather.updater.weather.model;
 
-import net.frakbot.util.log.FLog;
-
 /**
  * A helper class representing weather data. Derived from Roman Nurik's
  * DashClock weather extension. Used for Yahoo! Weather data.
+ * <p/>
+ * This class lives in the platform-independent core module, so it must not
+ * depend on any Android API.
  */
 public class WeatherData {
 
-    private static final String TAG = WeatherData.class.getSimpleName();
-
     // Used for serialization/deserialization
     private static final int WEATHER_DATA_VERSION = 1;
     private static final int WEATHER_DATA_FIELDS_COUNT = 9;
@@ -60,10 +59,63 @@ public class WeatherData {
     public String conditionText;
     public String forecastText;
     public String location;
+    public String woeid;        // The WOEID the data has been fetched for, if known
 
     public WeatherData() {
     }
 
+    /**
+     * Creates a copy of the given weather data.
+     *
+     * @param other The weather data to copy
+     */
+    public WeatherData(WeatherData other) {
+        temperature = other.temperature;
+        low = other.low;
+        high = other.high;
+        conditionCode = other.conditionCode;
+        todayForecastConditionCode = other.todayForecastConditionCode;
+        conditionText = other.conditionText;
+        forecastText = other.forecastText;
+        location = other.location;
+        woeid = other.woeid;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        WeatherData that = (WeatherData) o;
+        return temperature == that.temperature &&
+               low == that.low &&
+               high == that.high &&
+               conditionCode == that.conditionCode &&
+               todayForecastConditionCode == that.todayForecastConditionCode &&
+               equals(conditionText, that.conditionText) &&
+               equals(forecastText, that.forecastText) &&
+               equals(location, that.location) &&
+               equals(woeid, that.woeid);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = temperature;
+        result = 31 * result + low;
+        result = 31 * result + high;
+        result = 31 * result + conditionCode;
+        result = 31 * result + todayForecastConditionCode;
+        result = 31 * result + (conditionText != null ? conditionText.hashCode() : 0);
+        result = 31 * result + (forecastText != null ? forecastText.hashCode() : 0);
+        result = 31 * result + (location != null ? location.hashCode() : 0);
+        result = 31 * result + (woeid != null ? woeid.hashCode() : 0);
+        return result;
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
     @Override
     public String toString() {
         return String.format("WeatherData {%s - %s (%d) - %d (min %d, max %d) - forecast: %s (%d)}",
@@ -76,7 +128,10 @@ public class WeatherData {
      * deserialize to an object instance.
      *
      * @return Returns the string representation of this instance.
+     * @deprecated Use {@link WeatherDataCodec#encode(WeatherData)}. This format breaks
+     *             when a text field contains the separator.
      */
+    @Deprecated
     public String serializeToString() {
         return String.format("%d||%s||%s||%d||%d||%d||%d||%s||%d",
                              WEATHER_DATA_VERSION, location, conditionText, conditionCode, temperature, low, high,
@@ -85,7 +140,8 @@ public class WeatherData {
 
     /**
      * Creates an instance of WeatherData deserializing the passed-along
-     * weather data.
+     * weather data. Only used to read data persisted in the legacy string format,
+     * see {@link WeatherDataCodec} for the current one.
      *
      * @return Returns an instance deserialized from the String, or null if
      *         the data is not valid.
@@ -93,15 +149,11 @@ public class WeatherData {
     public static WeatherData deserializeFromString(String serialized) {
         // Sanity checks first
         if (serialized == null) {
-            FLog.v(TAG, "Deserializing failed. Null string");
             return null;
         }
 
         String[] tokens = serialized.split("\\|\\|");
         if (tokens.length != WEATHER_DATA_FIELDS_COUNT) {
-            FLog.v(TAG, String.format("Deserializing failed. Invalid string: \"%s\"\n" +
-                                      "\t>Fields found: %d, expected: %d",
-                                      serialized, tokens.length, WEATHER_DATA_FIELDS_COUNT));
             return null;
         }
 
@@ -112,8 +164,6 @@ public class WeatherData {
         } catch (Throwable ignored) { }
 
         if (tmpInt != WEATHER_DATA_VERSION) {
-            FLog.v(TAG, String.format("Deserializing failed. Wrong data version: %d (ours is: %d)",
-                                      tmpInt, WEATHER_DATA_VERSION));
             return null;
         }
 
@@ -0,0 +1,288 @@
+/*
+ * Copyright 2014 Sebastiano Poggi and Francesco Pontillo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.frakbot.FWeather.updater.weather.model;
+
+import java.nio.charset.Charset;
+
+/**
+ * Compact binary codec for {@link WeatherData}, used to persist it.
+ * <p/>
+ * The encoded data starts with a magic byte and a schema version byte, followed
+ * by a sequence of fields. Each field starts with a varint key, holding the field
+ * number and its wire type (<code>number << 3 | type</code>), followed by the
+ * value: a zigzag varint for integers, or a varint length and the UTF-8 bytes for
+ * strings. Fields with their default value (null strings, invalid temperatures
+ * and conditions) are not written at all.
+ * <p/>
+ * New fields can be added with new field numbers without changing the schema
+ * version: decoders skip the fields they don't know, using their wire type, and
+ * leave missing fields to their default. Field numbers must never be reused.
+ * The schema version must only be increased for incompatible changes; data with
+ * an unknown version is rejected.
+ *
+ * @author Sebastiano Poggi, Francesco Pontillo
+ */
+public class WeatherDataCodec {
+
+    private static final byte MAGIC = (byte) 0xF7;
+    private static final byte SCHEMA_VERSION = 1;
+
+    private static final int WIRE_TYPE_VARINT = 0;
+    private static final int WIRE_TYPE_BYTES = 2;
+
+    // Field numbers. Never reuse a number, even if the field is removed!
+    private static final int FIELD_TEMPERATURE = 1;
+    private static final int FIELD_LOW = 2;
+    private static final int FIELD_HIGH = 3;
+    private static final int FIELD_CONDITION_CODE = 4;
+    private static final int FIELD_TODAY_FORECAST_CONDITION_CODE = 5;
+    private static final int FIELD_CONDITION_TEXT = 6;
+    private static final int FIELD_FORECAST_TEXT = 7;
+    private static final int FIELD_LOCATION = 8;
+    private static final int FIELD_WOEID = 9;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private WeatherDataCodec() {
+    }
+
+    /**
+     * Encodes weather data.
+     *
+     * @param data The weather data to encode
+     * @return Returns the encoded data
+     */
+    public static byte[] encode(WeatherData data) {
+        final Writer writer = new Writer();
+        writer.writeByte(MAGIC);
+        writer.writeByte(SCHEMA_VERSION);
+
+        writer.writeInt(FIELD_TEMPERATURE, data.temperature, WeatherData.INVALID_TEMPERATURE);
+        writer.writeInt(FIELD_LOW, data.low, WeatherData.INVALID_TEMPERATURE);
+        writer.writeInt(FIELD_HIGH, data.high, WeatherData.INVALID_TEMPERATURE);
+        writer.writeInt(FIELD_CONDITION_CODE, data.conditionCode, WeatherData.INVALID_CONDITION);
+        writer.writeInt(FIELD_TODAY_FORECAST_CONDITION_CODE, data.todayForecastConditionCode,
+                        WeatherData.INVALID_CONDITION);
+        writer.writeString(FIELD_CONDITION_TEXT, data.conditionText);
+        writer.writeString(FIELD_FORECAST_TEXT, data.forecastText);
+        writer.writeString(FIELD_LOCATION, data.location);
+        writer.writeString(FIELD_WOEID, data.woeid);
+
+        return writer.toByteArray();
+    }
+
+    /**
+     * Decodes weather data.
+     *
+     * @param encoded The encoded data
+     * @return Returns the decoded weather data, or null if the data is not
+     *         valid or has an unknown schema version
+     */
+    public static WeatherData decode(byte[] encoded) {
+        if (encoded == null) {
+            return null;
+        }
+        return decode(encoded, 0, encoded.length);
+    }
+
+    /**
+     * Decodes weather data.
+     *
+     * @param encoded The buffer holding the encoded data
+     * @param offset  The offset of the encoded data in the buffer
+     * @param length  The length of the encoded data
+     * @return Returns the decoded weather data, or null if the data is not
+     *         valid or has an unknown schema version
+     */
+    public static WeatherData decode(byte[] encoded, int offset, int length) {
+        if (encoded == null || length < 2 || encoded[offset] != MAGIC || encoded[offset + 1] != SCHEMA_VERSION) {
+            return null;
+        }
+
+        final Reader reader = new Reader(encoded, offset + 2, offset + length);
+        final WeatherData data = new WeatherData();
+        try {
+            while (reader.hasMore()) {
+                final int key = reader.readVarint();
+                final int wireType = key & 0x07;
+
+                switch (key >>> 3) {
+                    case FIELD_TEMPERATURE:
+                        data.temperature = reader.readInt(wireType);
+                        break;
+                    case FIELD_LOW:
+                        data.low = reader.readInt(wireType);
+                        break;
+                    case FIELD_HIGH:
+                        data.high = reader.readInt(wireType);
+                        break;
+                    case FIELD_CONDITION_CODE:
+                        data.conditionCode = reader.readInt(wireType);
+                        break;
+                    case FIELD_TODAY_FORECAST_CONDITION_CODE:
+                        data.todayForecastConditionCode = reader.readInt(wireType);
+                        break;
+                    case FIELD_CONDITION_TEXT:
+                        data.conditionText = reader.readString(wireType);
+                        break;
+                    case FIELD_FORECAST_TEXT:
+                        data.forecastText = reader.readString(wireType);
+                        break;
+                    case FIELD_LOCATION:
+                        data.location = reader.readString(wireType);
+                        break;
+                    case FIELD_WOEID:
+                        data.woeid = reader.readString(wireType);
+                        break;
+                    default:
+                        // A field from a newer version of the schema
+                        reader.skip(wireType);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            // Truncated or corrupted data
+            return null;
+        }
+
+        return data;
+    }
+
+    /**
+     * Writes the encoded fields in a growable buffer.
+     */
+    private static class Writer {
+
+        private byte[] mBuffer = new byte[64];
+        private int mSize;
+
+        void writeByte(int b) {
+            if (mSize == mBuffer.length) {
+                final byte[] newBuffer = new byte[mBuffer.length * 2];
+                System.arraycopy(mBuffer, 0, newBuffer, 0, mSize);
+                mBuffer = newBuffer;
+            }
+            mBuffer[mSize++] = (byte) b;
+        }
+
+        void writeVarint(int value) {
+            while ((value & ~0x7F) != 0) {
+                writeByte((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            writeByte(value);
+        }
+
+        void writeInt(int field, int value, int defaultValue) {
+            if (value == defaultValue) return;
+
+            writeVarint(field << 3 | WIRE_TYPE_VARINT);
+            writeVarint((value << 1) ^ (value >> 31));      // ZigZag encoding
+        }
+
+        void writeString(int field, String value) {
+            if (value == null) return;
+
+            final byte[] bytes = value.getBytes(UTF_8);
+            writeVarint(field << 3 | WIRE_TYPE_BYTES);
+            writeVarint(bytes.length);
+            for (byte b : bytes) {
+                writeByte(b);
+            }
+        }
+
+        byte[] toByteArray() {
+            final byte[] result = new byte[mSize];
+            System.arraycopy(mBuffer, 0, result, 0, mSize);
+            return result;
+        }
+    }
+
+    /**
+     * Reads the encoded fields from a buffer. Throws IllegalArgumentException
+     * when the data is truncated or malformed.
+     */
+    private static class Reader {
+
+        private final byte[] mBuffer;
+        private final int mEnd;
+        private int mPosition;
+
+        Reader(byte[] buffer, int start, int end) {
+            mBuffer = buffer;
+            mPosition = start;
+            mEnd = end;
+        }
+
+        boolean hasMore() {
+            return mPosition < mEnd;
+        }
+
+        int readVarint() {
+            int result = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                if (mPosition >= mEnd) {
+                    throw new IllegalArgumentException("Truncated varint");
+                }
+                final byte b = mBuffer[mPosition++];
+                result |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint");
+        }
+
+        int readInt(int wireType) {
+            checkWireType(wireType, WIRE_TYPE_VARINT);
+            final int value = readVarint();
+            return (value >>> 1) ^ -(value & 1);            // ZigZag decoding
+        }
+
+        String readString(int wireType) {
+            checkWireType(wireType, WIRE_TYPE_BYTES);
+            final int length = readLength();
+            final String value = new String(mBuffer, mPosition, length, UTF_8);
+            mPosition += length;
+            return value;
+        }
+
+        void skip(int wireType) {
+            if (wireType == WIRE_TYPE_VARINT) {
+                readVarint();
+            } else if (wireType == WIRE_TYPE_BYTES) {
+                final int length = readLength();
+                mPosition += length;
+            } else {
+                throw new IllegalArgumentException("Unknown wire type: " + wireType);
+            }
+        }
+
+        private int readLength() {
+            final int length = readVarint();
+            if (length < 0 || length > mEnd - mPosition) {
+                throw new IllegalArgumentException("Invalid length: " + length);
+            }
+            return length;
+        }
+
+        private static void checkWireType(int wireType, int expected) {
+            if (wireType != expected) {
+                throw new IllegalArgumentException("Unexpected wire type: " + wireType);
+            }
+        }
+    }
+}
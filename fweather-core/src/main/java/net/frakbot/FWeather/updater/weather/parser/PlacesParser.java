@@ -0,0 +1,57 @@
+/*
+ * Copyright 2014 Sebastiano Poggi and Francesco Pontillo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.frakbot.FWeather.updater.weather.parser;
+
+import net.frakbot.FWeather.updater.weather.model.LocationInfo;
+import net.frakbot.FWeather.updater.weather.model.LocationSearchResult;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Parses the place documents returned by a geocoding service.
+ * <p/>
+ * Implementations don't own the parser nor its input, and must not
+ * depend on any Android API (so they can be benchmarked off-device).
+ */
+public interface PlacesParser {
+
+    /**
+     * Parses the result of a reverse-geocoding (place search by coordinates) query.
+     *
+     * @param xpp The XmlPullParser, with its input already set
+     * @return Returns the parsed location info. Its WOEIDs list is empty if
+     *         no WOEID was found in the document.
+     * @throws XmlPullParserException If the document is malformed
+     * @throws IOException            If reading the document fails
+     */
+    LocationInfo parseLocationInfo(XmlPullParser xpp) throws XmlPullParserException, IOException;
+
+    /**
+     * Parses the result of a place name search query.
+     *
+     * @param xpp     The XmlPullParser, with its input already set
+     * @param results The list to add the results to. If parsing fails midway,
+     *                it still contains the results found up to that point.
+     * @throws XmlPullParserException If the document is malformed
+     * @throws IOException            If reading the document fails
+     */
+    void parseSearchResults(XmlPullParser xpp, List<LocationSearchResult> results)
+            throws XmlPullParserException, IOException;
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2014 Sebastiano Poggi and Francesco Pontillo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.frakbot.FWeather.updater.weather.parser;
+
+import net.frakbot.FWeather.updater.weather.model.WeatherData;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+
+/**
+ * Parses a weather feed document into a {@link WeatherData}.
+ * <p/>
+ * Implementations don't own the parser nor its input, and must not
+ * depend on any Android API (so they can be benchmarked off-device).
+ * They may stop reading before the end of the document once they have
+ * everything they need.
+ */
+public interface WeatherFeedParser {
+
+    /**
+     * Parses the weather feed the parser has been set up to read.
+     *
+     * @param xpp  The XmlPullParser, with its input already set
+     * @param town The name of the town the weather is for, or null if unknown
+     * @return Returns the parsed weather data (never null)
+     * @throws XmlPullParserException If the document is malformed
+     * @throws IOException            If reading the document fails
+     * @throws NumberFormatException  If a numeric attribute can't be parsed
+     */
+    WeatherData parseWeather(XmlPullParser xpp, String town) throws XmlPullParserException, IOException;
+}
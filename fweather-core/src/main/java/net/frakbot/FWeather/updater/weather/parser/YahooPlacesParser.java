@@ -0,0 +1,223 @@
+/*
+ * Copyright 2014 Sebastiano Poggi and Francesco Pontillo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*
+ * Copyright 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.frakbot.FWeather.updater.weather.parser;
+
+import net.frakbot.FWeather.updater.weather.model.LocationInfo;
+import net.frakbot.FWeather.updater.weather.model.LocationSearchResult;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Parser for the Yahoo! GeoPlanet API place documents.
+ */
+public class YahooPlacesParser implements PlacesParser {
+
+    private static final int PARSE_STATE_NONE = 0;
+    private static final int PARSE_STATE_PLACE = 1;
+    private static final int PARSE_STATE_WOEID = 2;
+    private static final int PARSE_STATE_NAME = 3;
+    private static final int PARSE_STATE_COUNTRY = 4;
+    private static final int PARSE_STATE_ADMIN1 = 5;
+
+    private static final Comparator<TaggedWoeid> TAG_NAME_COMPARATOR = new Comparator<TaggedWoeid>() {
+        @Override
+        public int compare(TaggedWoeid woeid1, TaggedWoeid woeid2) {
+            return woeid1.tagName.compareTo(woeid2.tagName);
+        }
+    };
+
+    @Override
+    public LocationInfo parseLocationInfo(XmlPullParser xpp) throws XmlPullParserException, IOException {
+        LocationInfo li = new LocationInfo();
+
+        String primaryWoeid = null;
+        List<TaggedWoeid> alternateWoeids = new ArrayList<TaggedWoeid>();
+
+        boolean inWoe = false;
+        boolean inTown = false;
+        int eventType = xpp.getEventType();
+
+        while (eventType != XmlPullParser.END_DOCUMENT) {
+            String tagName = xpp.getName();
+
+            if (eventType == XmlPullParser.START_TAG && "woeid".equals(tagName)) {
+                inWoe = true;
+            } else if (eventType == XmlPullParser.TEXT && inWoe) {
+                primaryWoeid = xpp.getText();
+            }
+
+            if (eventType == XmlPullParser.START_TAG &&
+                    (tagName.startsWith("locality") || tagName.startsWith("admin"))) {
+                for (int i = xpp.getAttributeCount() - 1; i >= 0; i--) {
+                    String attrName = xpp.getAttributeName(i);
+                    if ("type".equals(attrName)
+                            && "Town".equals(xpp.getAttributeValue(i))) {
+                        inTown = true;
+                    } else if ("woeid".equals(attrName)) {
+                        String woeid = xpp.getAttributeValue(i);
+                        if (!isEmpty(woeid)) {
+                            alternateWoeids.add(new TaggedWoeid(tagName, woeid));
+                        }
+                    }
+                }
+            } else if (eventType == XmlPullParser.TEXT && inTown) {
+                li.town = xpp.getText();
+            }
+
+            if (eventType == XmlPullParser.END_TAG) {
+                inWoe = false;
+                inTown = false;
+            }
+
+            eventType = xpp.next();
+        }
+
+        // Add the primary woeid if it was found.
+        if (!isEmpty(primaryWoeid)) {
+            li.woeids.add(primaryWoeid);
+        }
+
+        // Sort by descending tag name to order by decreasing precision
+        // (locality3, locality2, locality1, admin3, admin2, admin1, etc.)
+        Collections.sort(alternateWoeids, TAG_NAME_COMPARATOR);
+
+        for (TaggedWoeid taggedWoeid : alternateWoeids) {
+            li.woeids.add(taggedWoeid.woeid);
+        }
+
+        return li;
+    }
+
+    @Override
+    public void parseSearchResults(XmlPullParser xpp, List<LocationSearchResult> results)
+            throws XmlPullParserException, IOException {
+        LocationSearchResult result = null;
+        String name = null, country = null, admin1 = null;
+        StringBuilder sb = new StringBuilder();
+
+        int state = PARSE_STATE_NONE;
+        int eventType = xpp.getEventType();
+        while (eventType != XmlPullParser.END_DOCUMENT) {
+            String tagName = xpp.getName();
+
+            if (eventType == XmlPullParser.START_TAG) {
+                switch (state) {
+                    case PARSE_STATE_NONE:
+                        if ("place".equals(tagName)) {
+                            state = PARSE_STATE_PLACE;
+                            result = new LocationSearchResult();
+                            name = country = admin1 = null;
+                        }
+                        break;
+
+                    case PARSE_STATE_PLACE:
+                        if ("name".equals(tagName)) {
+                            state = PARSE_STATE_NAME;
+                        } else if ("woeid".equals(tagName)) {
+                            state = PARSE_STATE_WOEID;
+                        } else if ("country".equals(tagName)) {
+                            state = PARSE_STATE_COUNTRY;
+                        } else if ("admin1".equals(tagName)) {
+                            state = PARSE_STATE_ADMIN1;
+                        }
+                        break;
+                }
+
+            } else if (eventType == XmlPullParser.TEXT) {
+                switch (state) {
+                    case PARSE_STATE_WOEID:
+                        result.woeid = xpp.getText();
+                        break;
+
+                    case PARSE_STATE_NAME:
+                        name = xpp.getText();
+                        break;
+
+                    case PARSE_STATE_COUNTRY:
+                        country = xpp.getText();
+                        break;
+
+                    case PARSE_STATE_ADMIN1:
+                        admin1 = xpp.getText();
+                        break;
+                }
+
+            } else if (eventType == XmlPullParser.END_TAG) {
+                if ("place".equals(tagName)) {
+                    sb.setLength(0);
+                    if (!isEmpty(name)) {
+                        sb.append(name);
+                    }
+                    if (!isEmpty(admin1)) {
+                        if (sb.length() > 0) {
+                            sb.append(", ");
+                        }
+                        sb.append(admin1);
+                    }
+                    result.displayName = sb.toString();
+                    result.country = country;
+                    results.add(result);
+                    state = PARSE_STATE_NONE;
+
+                } else if (state != PARSE_STATE_NONE) {
+                    state = PARSE_STATE_PLACE;
+                }
+            }
+
+            eventType = xpp.next();
+        }
+    }
+
+    private static boolean isEmpty(String str) {
+        return str == null || str.length() == 0;
+    }
+
+    /**
+     * A WOEID, along with the name of the tag (admin1, locality3) it was found in.
+     */
+    private static class TaggedWoeid {
+        final String tagName;
+        final String woeid;
+
+        TaggedWoeid(String tagName, String woeid) {
+            this.tagName = tagName;
+            this.woeid = woeid;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2014 Sebastiano Poggi and Francesco Pontillo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*
+ * Copyright 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.frakbot.FWeather.updater.weather.parser;
+
+import net.frakbot.FWeather.updater.weather.model.WeatherData;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Parser for the Yahoo! Weather RSS feed.
+ * <p/>
+ * The tags and attributes the parser is interested in are looked up in static
+ * tables. When created in early termination mode, the parser keeps track of the
+ * fields that are still missing, and stops reading the document as soon as they
+ * have all been read; the rest of the feed (the following days' forecasts, the
+ * description, etc.) is never parsed.
+ */
+public class YahooWeatherFeedParser implements WeatherFeedParser {
+
+    // The fields of the feed we need
+    private static final int FIELD_CONDITION = 1;
+    private static final int FIELD_TODAY_FORECAST = 1 << 1;
+    private static final int FIELD_LOCATION = 1 << 2;
+    private static final int ALL_FIELDS = FIELD_CONDITION | FIELD_TODAY_FORECAST | FIELD_LOCATION;
+
+    // The attributes of the feed we need
+    private static final int ATTR_TEMPERATURE = 0;
+    private static final int ATTR_CONDITION_CODE = 1;
+    private static final int ATTR_CONDITION_TEXT = 2;
+    private static final int ATTR_FORECAST_CODE = 3;
+    private static final int ATTR_FORECAST_LOW = 4;
+    private static final int ATTR_FORECAST_HIGH = 5;
+    private static final int ATTR_FORECAST_TEXT = 6;
+    private static final int ATTR_CITY = 7;
+    private static final int ATTR_REGION = 8;
+    private static final int ATTR_COUNTRY = 9;
+
+    // Tag name -> field
+    private static final Map<String, Integer> TAG_FIELDS = new HashMap<String, Integer>();
+    // Field -> (attribute name -> attribute)
+    private static final Map<Integer, Map<String, Integer>> FIELD_ATTRIBUTES =
+            new HashMap<Integer, Map<String, Integer>>();
+
+    static {
+        TAG_FIELDS.put("condition", FIELD_CONDITION);
+        TAG_FIELDS.put("forecast", FIELD_TODAY_FORECAST);
+        TAG_FIELDS.put("location", FIELD_LOCATION);
+
+        Map<String, Integer> attributes = new HashMap<String, Integer>();
+        attributes.put("temp", ATTR_TEMPERATURE);
+        attributes.put("code", ATTR_CONDITION_CODE);
+        attributes.put("text", ATTR_CONDITION_TEXT);
+        FIELD_ATTRIBUTES.put(FIELD_CONDITION, attributes);
+
+        attributes = new HashMap<String, Integer>();
+        attributes.put("code", ATTR_FORECAST_CODE);
+        attributes.put("low", ATTR_FORECAST_LOW);
+        attributes.put("high", ATTR_FORECAST_HIGH);
+        attributes.put("text", ATTR_FORECAST_TEXT);
+        FIELD_ATTRIBUTES.put(FIELD_TODAY_FORECAST, attributes);
+
+        attributes = new HashMap<String, Integer>();
+        attributes.put("city", ATTR_CITY);
+        attributes.put("region", ATTR_REGION);
+        attributes.put("country", ATTR_COUNTRY);
+        FIELD_ATTRIBUTES.put(FIELD_LOCATION, attributes);
+    }
+
+    private final boolean mStopWhenComplete;
+
+    /**
+     * Creates a parser that reads the whole document.
+     */
+    public YahooWeatherFeedParser() {
+        this(false);
+    }
+
+    /**
+     * Creates a parser.
+     *
+     * @param stopWhenComplete If true, the parser stops reading the document as soon as
+     *                         all the needed fields have been read. The caller is then
+     *                         responsible for discarding the rest of the input.
+     */
+    public YahooWeatherFeedParser(boolean stopWhenComplete) {
+        mStopWhenComplete = stopWhenComplete;
+    }
+
+    @Override
+    public WeatherData parseWeather(XmlPullParser xpp, String town)
+            throws XmlPullParserException, IOException {
+        WeatherData data = new WeatherData();
+        int readFields = 0;
+        int eventType = xpp.getEventType();
+        while (eventType != XmlPullParser.END_DOCUMENT) {
+            if (eventType == XmlPullParser.START_TAG) {
+                final Integer field = TAG_FIELDS.get(xpp.getName());
+
+                // TODO: verify this is the forecast for today (this currently assumes the
+                // first forecast is today's forecast)
+                if (field != null && (field != FIELD_TODAY_FORECAST || (readFields & FIELD_TODAY_FORECAST) == 0)) {
+                    if (field == FIELD_LOCATION) {
+                        parseLocation(xpp, town, data);
+                    } else {
+                        parseAttributes(xpp, FIELD_ATTRIBUTES.get(field), data);
+                    }
+                    readFields |= field;
+
+                    if (mStopWhenComplete && readFields == ALL_FIELDS) {
+                        break;
+                    }
+                }
+            }
+            eventType = xpp.next();
+        }
+
+        if (isEmpty(data.location)) {
+            data.location = town;
+        }
+
+        return data;
+    }
+
+    private static void parseAttributes(XmlPullParser xpp, Map<String, Integer> attributes, WeatherData data) {
+        for (int i = xpp.getAttributeCount() - 1; i >= 0; i--) {
+            final Integer attribute = attributes.get(xpp.getAttributeName(i));
+            if (attribute == null) {
+                continue;
+            }
+
+            final String value = xpp.getAttributeValue(i);
+            switch (attribute) {
+                case ATTR_TEMPERATURE:
+                    data.temperature = Integer.parseInt(value);
+                    break;
+                case ATTR_CONDITION_CODE:
+                    data.conditionCode = Integer.parseInt(value);
+                    break;
+                case ATTR_CONDITION_TEXT:
+                    data.conditionText = value;
+                    break;
+                case ATTR_FORECAST_CODE:
+                    data.todayForecastConditionCode = Integer.parseInt(value);
+                    break;
+                case ATTR_FORECAST_LOW:
+                    data.low = Integer.parseInt(value);
+                    break;
+                case ATTR_FORECAST_HIGH:
+                    data.high = Integer.parseInt(value);
+                    break;
+                case ATTR_FORECAST_TEXT:
+                    data.forecastText = value;
+                    break;
+            }
+        }
+    }
+
+    private static void parseLocation(XmlPullParser xpp, String town, WeatherData data) {
+        final Map<String, Integer> attributes = FIELD_ATTRIBUTES.get(FIELD_LOCATION);
+        String cityOrVillage = "--";
+        String region = null;
+        String country = "--";
+        for (int i = xpp.getAttributeCount() - 1; i >= 0; i--) {
+            final Integer attribute = attributes.get(xpp.getAttributeName(i));
+            if (attribute == null) {
+                continue;
+            }
+
+            switch (attribute) {
+                case ATTR_CITY:
+                    cityOrVillage = xpp.getAttributeValue(i);
+                    break;
+                case ATTR_REGION:
+                    region = xpp.getAttributeValue(i);
+                    break;
+                case ATTR_COUNTRY:
+                    country = xpp.getAttributeValue(i);
+                    break;
+            }
+        }
+
+        if (isEmpty(region)) {
+            // If no region is available, show the country. Otherwise, don't
+            // show country information.
+            region = country;
+        }
+
+        if (!isEmpty(town) && !town.equals(cityOrVillage)) {
+            // If a town is available and it's not equivalent to the city name,
+            // show it.
+            cityOrVillage = cityOrVillage + ", " + town;
+        }
+
+        data.location = cityOrVillage + ", " + region;
+    }
+
+    private static boolean isEmpty(String str) {
+        return str == null || str.length() == 0;
+    }
+}
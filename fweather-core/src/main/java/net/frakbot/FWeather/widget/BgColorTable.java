@@ -0,0 +1,64 @@
+/*
+ * Copyright 2014 Sebastiano Poggi and Francesco Pontillo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.frakbot.FWeather.widget;
+
+/**
+ * The widget background colors, one for each step of the background opacity
+ * preference. The lookup is on the steady-state render path and doesn't allocate.
+ */
+public final class BgColorTable {
+
+    /** The difference between two consecutive opacity values, in percent */
+    public static final int OPACITY_STEP = 25;
+
+    // We assume a fully transparent BG color as default
+    private static final int DEFAULT_COLOR = 0x00000000;
+
+    private final int[] mColors;
+
+    /**
+     * Creates a table from the colors for each opacity step.
+     *
+     * @param colors The colors, from the fully transparent one up (the array is copied)
+     */
+    public BgColorTable(int[] colors) {
+        mColors = colors.clone();
+    }
+
+    /**
+     * Checks if an opacity value is one of the steps of the table.
+     *
+     * @param opacity The opacity, in percent
+     * @return Returns true if the opacity is a multiple of {@link #OPACITY_STEP}
+     */
+    public static boolean isValidOpacity(int opacity) {
+        return opacity % OPACITY_STEP == 0;
+    }
+
+    /**
+     * Gets the background color for an opacity value. Values that aren't on a
+     * step are rounded down to the previous one.
+     *
+     * @param opacity The opacity, in percent
+     * @return Returns the background color, or a fully transparent one if the
+     * opacity is out of range
+     */
+    public int getColor(int opacity) {
+        final int index = (opacity - opacity % OPACITY_STEP) / OPACITY_STEP;
+        return index >= 0 && index < mColors.length ? mColors[index] : DEFAULT_COLOR;
+    }
+}
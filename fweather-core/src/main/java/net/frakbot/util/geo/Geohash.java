@@ -0,0 +1,94 @@
+/*
+ * Copyright 2014 Sebastiano Poggi and Francesco Pontillo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.frakbot.util.geo;
+
+/**
+ * Geohash encoder. A geohash identifies a rectangular cell on the Earth's
+ * surface; the longer the hash, the smaller the cell. Locations that fall in
+ * the same cell have the same geohash, so it can be used as a key to group
+ * nearby locations.
+ * <p/>
+ * Approximate cell sizes (at the Equator) by precision:
+ * 4 = 39 x 19.5 km, 5 = 4.9 x 4.9 km, 6 = 1.2 x 0.61 km, 7 = 153 x 153 m.
+ *
+ * @author Sebastiano Poggi, Francesco Pontillo
+ */
+public class Geohash {
+
+    public static final int MIN_PRECISION = 1;
+    public static final int MAX_PRECISION = 12;
+
+    private static final char[] BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz".toCharArray();
+
+    private Geohash() {
+    }
+
+    /**
+     * Encodes a location into a geohash.
+     *
+     * @param latitude  The latitude, in degrees [-90, 90]
+     * @param longitude The longitude, in degrees [-180, 180]
+     * @param precision The number of characters of the geohash,
+     *                  between {@link #MIN_PRECISION} and {@link #MAX_PRECISION}
+     * @return Returns the geohash of the cell containing the location
+     * @throws IllegalArgumentException If any of the arguments is out of range
+     */
+    public static String encode(double latitude, double longitude, int precision) {
+        if (latitude < -90 || latitude > 90 || Double.isNaN(latitude)) {
+            throw new IllegalArgumentException("Invalid latitude: " + latitude);
+        }
+        if (longitude < -180 || longitude > 180 || Double.isNaN(longitude)) {
+            throw new IllegalArgumentException("Invalid longitude: " + longitude);
+        }
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("Invalid precision: " + precision);
+        }
+
+        double minLat = -90, maxLat = 90;
+        double minLon = -180, maxLon = 180;
+        final char[] hash = new char[precision];
+        boolean evenBit = true;     // Bits alternate between longitude (even) and latitude (odd)
+
+        for (int i = 0; i < precision; i++) {
+            int index = 0;
+            for (int bit = 0; bit < 5; bit++) {
+                index <<= 1;
+                if (evenBit) {
+                    final double mid = (minLon + maxLon) / 2;
+                    if (longitude >= mid) {
+                        index |= 1;
+                        minLon = mid;
+                    } else {
+                        maxLon = mid;
+                    }
+                } else {
+                    final double mid = (minLat + maxLat) / 2;
+                    if (latitude >= mid) {
+                        index |= 1;
+                        minLat = mid;
+                    } else {
+                        maxLat = mid;
+                    }
+                }
+                evenBit = !evenBit;
+            }
+            hash[i] = BASE32[index];
+        }
+
+        return new String(hash);
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2014 Sebastiano Poggi and Francesco Pontillo
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.frakbot.FWeather.widget;
+
+import net.frakbot.FWeather.updater.weather.model.TemperatureBuckets;
+import net.frakbot.FWeather.updater.weather.model.WeatherData;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the helpers on the steady-state render path don't allocate.
+ * <p/>
+ * Only the plain Java helpers are covered here: the rest of the render path
+ * (the RemoteViews, the colored phrases cache lookups) lives in the Android
+ * module and can't be measured on the JVM.
+ */
+public class RenderPathAllocationTest {
+
+    private static final int WARMUP_ITERATIONS = 100000;
+    private static final int MEASURED_ITERATIONS = 10000;
+
+    private com.sun.management.ThreadMXBean mThreadBean;
+    private WeatherData[] mWeathers;
+    private BgColorTable mColors;
+
+    // Keeps the results alive, so that the calls aren't optimized away
+    private int mSink;
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        mThreadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(mThreadBean.isThreadAllocatedMemorySupported());
+        mThreadBean.setThreadAllocatedMemoryEnabled(true);
+
+        final int[] temperatures = new int[] {-20, -5, 0, 12, 20, 29, 45};
+        mWeathers = new WeatherData[temperatures.length + 1];
+        for (int i = 0; i < temperatures.length; i++) {
+            mWeathers[i] = new WeatherData();
+            mWeathers[i].conditionCode = 30;
+            mWeathers[i].temperature = temperatures[i];
+        }
+        mWeathers[temperatures.length] = new WeatherData();
+        mWeathers[temperatures.length].conditionCode = WeatherData.WEATHER_ID_ERR_NO_NETWORK;
+
+        mColors = new BgColorTable(new int[] {0x00000000, 0x40000000, 0x80000000, 0xC0000000, 0xFF000000});
+    }
+
+    @Test
+    public void temperatureBucketsDontAllocate() {
+        final Runnable lookup = new Runnable() {
+            @Override
+            public void run() {
+                for (WeatherData weather : mWeathers) {
+                    mSink += TemperatureBuckets.getTemperatureRangeDescriptor(weather);
+                }
+                mSink += TemperatureBuckets.getTemperatureRangeDescriptor(null);
+            }
+        };
+
+        assertEquals("Bytes allocated by the temperature bucketing", 0, measureAllocatedBytes(lookup));
+    }
+
+    @Test
+    public void bgColorLookupDoesntAllocate() {
+        final Runnable lookup = new Runnable() {
+            @Override
+            public void run() {
+                for (int opacity = -25; opacity <= 125; opacity += 5) {
+                    mSink += mColors.getColor(opacity);
+                }
+            }
+        };
+
+        assertEquals("Bytes allocated by the background color lookup", 0, measureAllocatedBytes(lookup));
+    }
+
+    /**
+     * Warms up a task, then measures how many bytes it allocates on the current thread,
+     * net of what the measurement itself allocates.
+     *
+     * @param task The task to measure
+     * @return Returns the bytes allocated by the task
+     */
+    private long measureAllocatedBytes(Runnable task) {
+        final Runnable empty = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            task.run();
+            empty.run();
+        }
+
+        return measure(task) - measure(empty);
+    }
+
+    private long measure(Runnable task) {
+        final long threadId = Thread.currentThread().getId();
+        final long before = mThreadBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            task.run();
+        }
+        return mThreadBean.getThreadAllocatedBytes(threadId) - before;
+    }
+}